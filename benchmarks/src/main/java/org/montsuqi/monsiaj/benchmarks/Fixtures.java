@@ -0,0 +1,200 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.UIControl;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.widgets.PandaTable;
+
+/**
+ * <p>
+ * Fixtures of the benchmarks.</p>
+ * <p>
+ * bench.glade is a window with entries, a PandaCList and a PandaTable of six
+ * columns. send_event.json is a send_event response for the window.
+ * screenData() makes screen data of the same shape with any number of
+ * rows.</p>
+ */
+final class Fixtures {
+
+    static final String WINDOW = "bench";
+    static final String CLIST = "bench.fixed1.scrolledwindow1.clist1";
+    static final String TABLE = "bench.fixed1.scrolledwindow2.table1";
+    static final int ENTRIES = 8;
+    static final int COLUMNS = 6;
+
+    private static final String[] NAMES = {
+        "山田 太郎", "佐藤 花子", "鈴木 一郎", "高橋 次郎", "田中 美咲", "伊藤 健", "渡辺 直子", "中村 翔"
+    };
+
+    private Fixtures() {
+    }
+
+    static byte[] read(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("no such fixture " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    static String readString(String name) throws IOException {
+        return new String(read(name), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <p>
+     * Returns the screen_data of the window in a send_event result.</p>
+     */
+    static JSONObject getScreenData(JSONObject result) {
+        return result.getJSONObject("window_data").getJSONArray("windows").getJSONObject(0).getJSONObject("screen_data");
+    }
+
+    /**
+     * <p>
+     * Creates a UIControl with the default style. This needs a display.</p>
+     */
+    static UIControl createUIControl() throws IOException {
+        return new UIControl(null, UIControl.class.getResource("/style.properties"), 0);
+    }
+
+    static Interface createInterface(UIControl uiControl) throws IOException {
+        return Interface.parseInput(new ByteArrayInputStream(read("bench.glade")), uiControl);
+    }
+
+    /**
+     * <p>
+     * Same as createInterface(UIControl), with <var>rows</var> rows in the
+     * PandaTable.</p>
+     */
+    static Interface createInterface(UIControl uiControl, int rows) throws IOException {
+        Interface xml = createInterface(uiControl);
+        ((PandaTable) xml.getWidgetByLongName(TABLE)).setRows(rows);
+        return xml;
+    }
+
+    /**
+     * <p>
+     * Marks the widgets of bench.glade changed, so that updateScreenData()
+     * reads all of them.</p>
+     */
+    static void markChanged(UIControl uiControl, Interface xml) {
+        for (int i = 1; i <= ENTRIES; i++) {
+            uiControl._addChangedWidget(xml.getWidgetByLongName(WINDOW + ".fixed1.entry" + i));
+        }
+        uiControl._addChangedWidget(xml.getWidgetByLongName(CLIST));
+        uiControl._addChangedWidget(xml.getWidgetByLongName(TABLE));
+    }
+
+    /**
+     * <p>
+     * Makes the screen data of bench.glade with <var>rows</var> rows in the
+     * PandaCList and the PandaTable. <var>seed</var> changes the values.</p>
+     */
+    static JSONObject screenData(int rows, int seed) {
+        JSONObject fixed = new JSONObject();
+        for (int i = 1; i <= ENTRIES; i++) {
+            JSONObject entry = new JSONObject();
+            entry.put("state", 0);
+            entry.put("style", "");
+            entry.put("visible", true);
+            entry.put("editable", true);
+            entry.put("textdata", "値" + (i + seed));
+            fixed.put("entry" + i, entry);
+        }
+        fixed.put("scrolledwindow1", new JSONObject().put("clist1", clist(rows, seed)));
+        fixed.put("scrolledwindow2", new JSONObject().put("table1", table(rows, seed)));
+        return new JSONObject().put("fixed1", fixed);
+    }
+
+    static JSONObject clist(int rows, int seed) {
+        JSONArray item = new JSONArray();
+        JSONArray bgcolor = new JSONArray();
+        JSONArray fgcolor = new JSONArray();
+        JSONArray selectdata = new JSONArray();
+        for (int i = 0; i < rows; i++) {
+            int n = i + seed;
+            JSONObject row = new JSONObject();
+            row.put("column1", String.format("%05d", n + 1));
+            row.put("column2", NAMES[n % NAMES.length]);
+            row.put("column3", "ﾔﾏﾀﾞ ﾀﾛｳ");
+            row.put("column4", String.format("H%02d.%02d.%02d", 20 + n % 10, 1 + n % 12, 1 + n % 28));
+            row.put("column5", n % 2 == 0 ? "女" : "男");
+            row.put("column6", (20 + n % 60) + "歳");
+            item.put(row);
+            bgcolor.put(i % 2 == 0 ? "#eeeeff" : "");
+            fgcolor.put("");
+            selectdata.put(i == 0);
+        }
+        JSONObject obj = new JSONObject();
+        obj.put("state", 0);
+        obj.put("style", "");
+        obj.put("visible", true);
+        obj.put("count", rows);
+        obj.put("row", 1);
+        obj.put("rowattr", 0);
+        obj.put("item", item);
+        obj.put("bgcolor", bgcolor);
+        obj.put("fgcolor", fgcolor);
+        obj.put("selectdata", selectdata);
+        return obj;
+    }
+
+    static JSONObject table(int rows, int seed) {
+        JSONArray rowdata = new JSONArray();
+        for (int i = 0; i < rows; i++) {
+            JSONObject row = new JSONObject();
+            for (int j = 0; j < COLUMNS; j++) {
+                JSONObject cell = new JSONObject();
+                cell.put("celldata", (i + seed + 1) + "-" + (j + 1));
+                cell.put("fgcolor", "");
+                cell.put("bgcolor", (i + j) % 7 == 0 ? "#ffeeee" : "");
+                row.put("column" + (j + 1), cell);
+            }
+            rowdata.put(row);
+        }
+        JSONObject obj = new JSONObject();
+        obj.put("state", 0);
+        obj.put("style", "");
+        obj.put("visible", true);
+        obj.put("trow", 1);
+        obj.put("tcolumn", 1);
+        obj.put("trowattr", 0);
+        obj.put("rowdata", rowdata);
+        return obj;
+    }
+}
@@ -0,0 +1,103 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.benchmarks;
+
+import java.awt.Insets;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.montsuqi.monsiaj.client.UIControl;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.monsia.WidgetInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Parsing bench.glade, building its widgets and scaling them.</p>
+ * <p>
+ * scaleWidget does nothing for the scale of the previous call, so each call
+ * switches between two scales.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class InterfaceBenchmark {
+
+    private byte[] glade;
+
+    /**
+     * <p>
+     * The widgets of bench.glade. Only the benchmarks using them need a
+     * display.</p>
+     */
+    @State(Scope.Thread)
+    public static class Widgets {
+
+        private final Insets insets = new Insets(0, 0, 0, 0);
+        private UIControl uiControl;
+        private Interface xml;
+        private double scale;
+
+        @Setup
+        public void setUp() throws IOException {
+            uiControl = Fixtures.createUIControl();
+            xml = Fixtures.createInterface(uiControl);
+            scale = 1.0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        glade = Fixtures.read("bench.glade");
+    }
+
+    @Benchmark
+    public List<WidgetInfo> parseRoots() {
+        return Interface.parseRoots(new ByteArrayInputStream(glade));
+    }
+
+    @Benchmark
+    public Interface parseInput(Widgets widgets) {
+        return Interface.parseInput(new ByteArrayInputStream(glade), widgets.uiControl);
+    }
+
+    @Benchmark
+    public Interface scaleWidget(Widgets widgets) {
+        widgets.scale = widgets.scale == 1.0 ? 1.25 : 1.0;
+        widgets.xml.scaleWidget(widgets.scale, widgets.scale, widgets.insets);
+        return widgets.xml;
+    }
+}
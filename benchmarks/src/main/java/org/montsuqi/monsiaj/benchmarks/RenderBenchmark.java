@@ -0,0 +1,149 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JTable;
+import org.montsuqi.monsiaj.util.ColorPalette;
+import org.montsuqi.monsiaj.widgets.PandaCList;
+import org.montsuqi.monsiaj.widgets.PandaCListModel;
+import org.montsuqi.monsiaj.widgets.PandaTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Painting a viewport of 30 rows of a PandaCList and a PandaTable with 1k,
+ * 10k and 100k rows into an image, as scrolling does. Each call paints the
+ * next page, wrapping at the end. The time should not grow with the number
+ * of rows. This needs no display.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RenderBenchmark {
+
+    private static final int WIDTH = 600;
+    private static final int VISIBLE_ROWS = 30;
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private PandaCList clist;
+    private PandaTable table;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private int page;
+
+    @Setup
+    public void setUp() {
+        String[][] items = new String[rows][];
+        short[] bgcolors = new short[rows];
+        short[] fgcolors = new short[rows];
+        boolean[] selection = new boolean[rows];
+        short stripe = ColorPalette.intern("#eeeeff", ColorPalette.WHITE);
+        for (int i = 0; i < rows; i++) {
+            items[i] = new String[Fixtures.COLUMNS];
+            for (int j = 0; j < Fixtures.COLUMNS; j++) {
+                items[i][j] = (i + 1) + "-" + (j + 1);
+            }
+            bgcolors[i] = i % 2 == 0 ? stripe : ColorPalette.WHITE;
+            fgcolors[i] = ColorPalette.BLACK;
+            selection[i] = i % 10 == 0;
+        }
+        clist = new PandaCList();
+        PandaCListModel model = new PandaCListModel(Fixtures.COLUMNS);
+        clist.setModel(model);
+        model.replaceAll(items);
+        clist.setBGColors(bgcolors);
+        clist.setFGColors(fgcolors);
+        clist.setSelection(selection);
+        clist.changeSelection(1, 0, false, false);
+        layout(clist);
+
+        table = new PandaTable();
+        table.setColumns(Fixtures.COLUMNS);
+        table.setRows(rows);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < Fixtures.COLUMNS; j++) {
+                table.putCell(i, j, items[i][j]);
+                table.setBGColor(i, j, (i + j) % 7 == 0 ? "#ffeeee" : "");
+            }
+        }
+        table.fireCellsUpdated();
+        layout(table);
+
+        image = new BufferedImage(WIDTH, VISIBLE_ROWS * 25, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    private static void layout(JTable t) {
+        t.setSize(WIDTH, t.getRowCount() * t.getRowHeight());
+        t.doLayout();
+    }
+
+    private BufferedImage paint(JTable t) {
+        int pages = Math.max(1, t.getRowCount() / VISIBLE_ROWS);
+        int y = (page++ % pages) * VISIBLE_ROWS * t.getRowHeight();
+        int height = VISIBLE_ROWS * t.getRowHeight();
+        Graphics2D g = (Graphics2D) graphics.create(0, 0, WIDTH, height);
+        try {
+            g.translate(0, -y);
+            g.setClip(0, y, WIDTH, height);
+            t.getUI().paint(g, t);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage paintCList() {
+        return paint(clist);
+    }
+
+    @Benchmark
+    public BufferedImage paintPandaTable() {
+        return paint(table);
+    }
+}
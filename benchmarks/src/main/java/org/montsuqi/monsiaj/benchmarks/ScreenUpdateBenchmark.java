@@ -0,0 +1,128 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.benchmarks;
+
+import java.awt.Component;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.UIControl;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * The screen update of bench.glade with synthetic data of 1k, 10k and 100k
+ * rows in the PandaCList and the PandaTable.</p>
+ * <p>
+ * updateScreenTemplate merges screen data of other values into the template
+ * and mergeScreenData does the same through the ScreenSchema of the window.
+ * mergeSparseScreenData merges an update of three entries, which resets all
+ * other values to their defaults.</p>
+ * <p>
+ * setWidget sets two screen data in turn, so that every widget is set, and
+ * setUnchangedWidget sets the same data again, which only compares
+ * fingerprints. updateScreenData reads all widgets back.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ScreenUpdateBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private JSONObject template;
+    private JSONObject screenData;
+    private JSONObject sparseScreenData;
+    private UIControl uiControl;
+    private Interface xml;
+    private Component window;
+    private boolean flip;
+
+    @Setup
+    public void setUp() throws IOException {
+        template = Fixtures.screenData(rows, 0);
+        screenData = Fixtures.screenData(rows, 1);
+        uiControl = Fixtures.createUIControl();
+        xml = Fixtures.createInterface(uiControl, rows);
+        window = xml.getWidgetByLongName(Fixtures.WINDOW);
+        uiControl.setWidget(xml, window, template);
+        Fixtures.markChanged(uiControl, xml);
+        uiControl.addScreenTemplate(Fixtures.WINDOW, Fixtures.screenData(rows, 0));
+        JSONObject fixed = new JSONObject();
+        for (int i = 1; i <= 3; i++) {
+            fixed.put("entry" + i, new JSONObject().put("textdata", "値" + i));
+        }
+        sparseScreenData = new JSONObject().put("fixed1", fixed);
+    }
+
+    @Benchmark
+    public JSONObject updateScreenTemplate() {
+        uiControl.updateScreenTemplate(template, screenData);
+        return template;
+    }
+
+    @Benchmark
+    public Object mergeScreenData() {
+        uiControl.mergeScreenData(Fixtures.WINDOW, screenData);
+        return uiControl.getScreenTemplate(Fixtures.WINDOW);
+    }
+
+    @Benchmark
+    public Object mergeSparseScreenData() {
+        uiControl.mergeScreenData(Fixtures.WINDOW, sparseScreenData);
+        return uiControl.getScreenTemplate(Fixtures.WINDOW);
+    }
+
+    @Benchmark
+    public Component setWidget() {
+        flip = !flip;
+        uiControl.setWidget(xml, window, flip ? screenData : template);
+        return window;
+    }
+
+    @Benchmark
+    public Component setUnchangedWidget() {
+        uiControl.setWidget(xml, window, template);
+        return window;
+    }
+
+    @Benchmark
+    public JSONObject updateScreenData() {
+        return uiControl.updateScreenData(xml, window, template);
+    }
+}
@@ -0,0 +1,104 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.benchmarks;
+
+import java.awt.Component;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.UIControl;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * The screen update of the send_event response in send_event.json, step by
+ * step as Client.sendEvent() and Client.updateScreen() do it.
+ * updateScreenTemplate is the merge without a ScreenSchema. setWidget sets
+ * the same data again, as after a send_event that changes nothing.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SendEventBenchmark {
+
+    private String response;
+    private JSONObject template;
+    private JSONObject screenData;
+    private UIControl uiControl;
+    private Interface xml;
+    private Component window;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = Fixtures.readString("send_event.json");
+        template = Fixtures.getScreenData(new JSONObject(response));
+        screenData = Fixtures.getScreenData(new JSONObject(response));
+        uiControl = Fixtures.createUIControl();
+        xml = Fixtures.createInterface(uiControl);
+        window = xml.getWidgetByLongName(Fixtures.WINDOW);
+        uiControl.setWidget(xml, window, template);
+        Fixtures.markChanged(uiControl, xml);
+        uiControl.addScreenTemplate(Fixtures.WINDOW, Fixtures.getScreenData(new JSONObject(response)));
+    }
+
+    @Benchmark
+    public JSONObject parseResponse() {
+        return new JSONObject(response);
+    }
+
+    @Benchmark
+    public JSONObject updateScreenTemplate() {
+        uiControl.updateScreenTemplate(template, screenData);
+        return template;
+    }
+
+    @Benchmark
+    public Object mergeScreenData() {
+        uiControl.mergeScreenData(Fixtures.WINDOW, screenData);
+        return uiControl.getScreenTemplate(Fixtures.WINDOW);
+    }
+
+    @Benchmark
+    public Component setWidget() {
+        uiControl.setWidget(xml, window, template);
+        return window;
+    }
+
+    @Benchmark
+    public JSONObject updateScreenData() {
+        return uiControl.updateScreenData(xml, window, template);
+    }
+}
@@ -0,0 +1,98 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.benchmarks;
+
+import java.awt.Component;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.UIControl;
+import org.montsuqi.monsiaj.client.widgethandlers.WidgetHandler;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.widgets.PandaCList;
+import org.montsuqi.monsiaj.widgets.PandaTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * The set() of the handlers of PandaCList and PandaTable with 1k, 10k and
+ * 100k rows. Each call alternates between two payloads, so that every cell
+ * is changed.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TableBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private final Map styleMap = new HashMap();
+    private JSONObject[] clistData;
+    private JSONObject[] tableData;
+    private UIControl uiControl;
+    private Component clist;
+    private Component table;
+    private WidgetHandler clistHandler;
+    private WidgetHandler tableHandler;
+    private int n;
+
+    @Setup
+    public void setUp() throws IOException {
+        clistData = new JSONObject[]{Fixtures.clist(rows, 0), Fixtures.clist(rows, 1)};
+        tableData = new JSONObject[]{Fixtures.table(rows, 0), Fixtures.table(rows, 1)};
+        uiControl = Fixtures.createUIControl();
+        Interface xml = Fixtures.createInterface(uiControl, rows);
+        clist = xml.getWidgetByLongName(Fixtures.CLIST);
+        table = xml.getWidgetByLongName(Fixtures.TABLE);
+        clistHandler = WidgetHandler.getHandler(PandaCList.class);
+        tableHandler = WidgetHandler.getHandler(PandaTable.class);
+    }
+
+    @Benchmark
+    public Component setCList() {
+        clistHandler.set(uiControl, clist, clistData[n++ & 1], styleMap);
+        return clist;
+    }
+
+    @Benchmark
+    public Component setPandaTable() {
+        tableHandler.set(uiControl, table, tableData[n++ & 1], styleMap);
+        return table;
+    }
+}
@@ -10,6 +10,8 @@ import java.lang.reflect.Modifier;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Properties;
 import java.util.jar.JarFile;
 import org.apache.logging.log4j.Level;
@@ -95,12 +97,8 @@ public class Loader {
         URL url = new URL(strURL);
         File tmp = File.createTempFile("monsiaj-bin-" + version + "-", ".zip");
         tmp.deleteOnExit();
-        BufferedInputStream in = new BufferedInputStream(con.getInputStream());
-        int length;
-        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
-            while ((length = in.read()) != -1) {
-                out.write(length);
-            }
+        try (InputStream in = con.getInputStream()) {
+            Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
         con.disconnect();
         ZipUtils.unzip(tmp, cacheDir);
@@ -0,0 +1,391 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.montsuqi.monsiaj.util.TempFile;
+
+/**
+ * <p>
+ * A two tier cache of BLOBs of a session.</p>
+ * <p>
+ * Every cached BLOB is a file under TempFile.tempDirRoot/blobcache_&lt;session
+ * id&gt;/, and small ones are also kept in memory. Both tiers are LRU lists
+ * bounded by bytes: monsia.blob_cache.memory_size(default 32MB) and
+ * monsia.blob_cache.disk_size(default 256MB). A BLOB larger than a quarter of
+ * the memory tier is kept on disk only.</p>
+ * <p>
+ * The Cache-Control, Expires, ETag and Last-Modified headers of the server
+ * are respected. no-store is never cached. no-cache, or an expired max-age or
+ * Expires, makes the entry be revalidated with If-None-Match and
+ * If-Modified-Since, which needs a validator. An oid names an object that
+ * does not change, so a response without freshness information stays fresh
+ * for the session.</p>
+ * <p>
+ * get() and put() pin the entry they return, and the caller must release()
+ * it. The file of a pinned entry is deleted only when the last pin is
+ * released, so that an entry removed or evicted by another thread can still
+ * be copied.</p>
+ */
+public class BlobCache {
+
+    private static final Logger logger = LogManager.getLogger(BlobCache.class);
+    private static final long DEFAULT_MEMORY_SIZE = 32L * 1024 * 1024;
+    private static final long DEFAULT_DISK_SIZE = 256L * 1024 * 1024;
+
+    static class Entry {
+
+        private final String oid;
+        private final File file;
+        private final long size;
+        private byte[] data;
+        private String etag;
+        private long lastModified;
+        private long expires;
+        private int pins;
+        private boolean removed;
+
+        private Entry(String oid, File file, long size) {
+            this.oid = oid;
+            this.file = file;
+            this.size = size;
+            this.data = null;
+            this.pins = 0;
+            this.removed = false;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+
+        String getETag() {
+            return etag;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private final File dir;
+    private final long memoryLimit;
+    private final long diskLimit;
+    private final Map<String, Entry> memory;
+    private final Map<String, Entry> disk;
+    private long memorySize;
+    private long diskSize;
+
+    private long hits;
+    private long memoryHits;
+    private long misses;
+    private long revalidations;
+    private long evictions;
+
+    BlobCache(String sessionId) {
+        dir = new File(TempFile.tempDirRoot, "blobcache_" + sessionId.replaceAll("[^A-Za-z0-9_.-]", "_"));
+        dir.mkdirs();
+        memoryLimit = getSize("monsia.blob_cache.memory_size", DEFAULT_MEMORY_SIZE);
+        diskLimit = getSize("monsia.blob_cache.disk_size", DEFAULT_DISK_SIZE);
+        memory = new LinkedHashMap<>(16, 0.75f, true);
+        disk = new LinkedHashMap<>(16, 0.75f, true);
+        memorySize = 0;
+        diskSize = 0;
+    }
+
+    static boolean isEnabled() {
+        return System.getProperty("monsia.disable_blob_cache") == null;
+    }
+
+    private static long getSize(String key, long defaultValue) {
+        if (System.getProperty(key) != null) {
+            return Long.parseLong(System.getProperty(key));
+        }
+        return defaultValue;
+    }
+
+    /**
+     * <p>
+     * Looks up <var>oid</var>. The caller must check isFresh() of the entry
+     * and revalidate it if needed.</p>
+     *
+     * @return the pinned entry or null.
+     */
+    synchronized Entry get(String oid) {
+        Entry e = disk.get(oid);
+        if (e != null) {
+            // refresh memory order
+            memory.get(oid);
+            e.pins++;
+        }
+        return e;
+    }
+
+    /**
+     * <p>
+     * Releases an entry pinned by get() or put().</p>
+     */
+    synchronized void release(Entry e) {
+        e.pins--;
+        if (e.pins == 0 && e.removed) {
+            e.file.delete();
+        }
+    }
+
+    private void discard(Entry e) {
+        e.removed = true;
+        if (e.pins == 0) {
+            e.file.delete();
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the file to download a BLOB into before put().</p>
+     */
+    File createDownloadFile() {
+        return new File(dir, "download_" + UUID.randomUUID().toString());
+    }
+
+    /**
+     * <p>
+     * Whether a 200 response can be stored.</p>
+     */
+    static boolean isCacheable(HttpURLConnection con) {
+        String cc = con.getHeaderField("Cache-Control");
+        if (cc != null) {
+            String v = cc.toLowerCase();
+            if (v.contains("no-store")) {
+                return false;
+            }
+            if (v.contains("no-cache") && con.getHeaderField("ETag") == null && con.getLastModified() == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Stores a downloaded BLOB. <var>downloaded</var> is moved into the
+     * cache.</p>
+     *
+     * @param oid the object id.
+     * @param downloaded the file made by createDownloadFile().
+     * @param con the connection of the response.
+     * @return the new entry, pinned.
+     * @throws IOException when the file cannot be moved.
+     */
+    synchronized Entry put(String oid, File downloaded, HttpURLConnection con) throws IOException {
+        remove(oid);
+        File file = new File(dir, "blob_" + oid.replaceAll("[^A-Za-z0-9_.-]", "_") + "_" + UUID.randomUUID().toString());
+        Files.move(downloaded.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Entry e = new Entry(oid, file, file.length());
+        e.pins++;
+        setValidators(e, con);
+        disk.put(oid, e);
+        diskSize += e.size;
+        if (e.size <= memoryLimit / 4) {
+            e.data = Files.readAllBytes(file.toPath());
+            memory.put(oid, e);
+            memorySize += e.size;
+        }
+        trim();
+        return e;
+    }
+
+    /**
+     * <p>
+     * Updates an entry after a 304 response.</p>
+     */
+    synchronized void revalidated(Entry e, HttpURLConnection con) {
+        revalidations++;
+        setValidators(e, con);
+    }
+
+    private static void setValidators(Entry e, HttpURLConnection con) {
+        String etag = con.getHeaderField("ETag");
+        if (etag != null) {
+            e.etag = etag;
+        }
+        if (con.getLastModified() != 0) {
+            e.lastModified = con.getLastModified();
+        }
+        e.expires = Long.MAX_VALUE;
+        String cc = con.getHeaderField("Cache-Control");
+        if (cc != null) {
+            for (String d : cc.toLowerCase().split(",")) {
+                d = d.trim();
+                if (d.startsWith("no-cache")) {
+                    e.expires = 0;
+                    break;
+                } else if (d.startsWith("max-age=")) {
+                    try {
+                        e.expires = System.currentTimeMillis() + Long.parseLong(d.substring("max-age=".length())) * 1000;
+                    } catch (NumberFormatException ex) {
+                        e.expires = 0;
+                    }
+                }
+            }
+        } else if (con.getExpiration() != 0) {
+            e.expires = con.getExpiration();
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the content of an entry to <var>out</var>, which is not
+     * closed.</p>
+     */
+    void copy(Entry e, OutputStream out) throws IOException {
+        byte[] data = hit(e);
+        if (data != null) {
+            out.write(data);
+        } else {
+            Files.copy(e.file.toPath(), out);
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the content of an entry to <var>file</var>.</p>
+     */
+    void copy(Entry e, File file) throws IOException {
+        byte[] data = hit(e);
+        if (data != null) {
+            Files.write(file.toPath(), data);
+        } else {
+            Files.copy(e.file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private synchronized byte[] hit(Entry e) {
+        hits++;
+        if (e.data != null) {
+            memoryHits++;
+        }
+        return e.data;
+    }
+
+    synchronized void miss() {
+        misses++;
+    }
+
+    synchronized void remove(String oid) {
+        Entry e = disk.remove(oid);
+        if (e != null) {
+            diskSize -= e.size;
+            discard(e);
+        }
+        e = memory.remove(oid);
+        if (e != null) {
+            memorySize -= e.size;
+            e.data = null;
+        }
+    }
+
+    private void trim() {
+        Iterator<Entry> i = memory.values().iterator();
+        while (memorySize > memoryLimit && i.hasNext()) {
+            Entry e = i.next();
+            i.remove();
+            memorySize -= e.size;
+            e.data = null;
+            evictions++;
+        }
+        i = disk.values().iterator();
+        while (diskSize > diskLimit && i.hasNext()) {
+            Entry e = i.next();
+            i.remove();
+            diskSize -= e.size;
+            discard(e);
+            if (memory.remove(e.oid) != null) {
+                memorySize -= e.size;
+                e.data = null;
+            }
+            evictions++;
+            logger.debug("evict blob " + e.oid + " " + e.size);
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all entries and the cache directory.</p>
+     */
+    synchronized void clear() {
+        memory.clear();
+        disk.clear();
+        memorySize = 0;
+        diskSize = 0;
+        TempFile.deleteAll(dir);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getRevalidations() {
+        return revalidations;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    public synchronized long getDiskSize() {
+        return diskSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "blob_cache hits:" + hits + " memory_hits:" + memoryHits + " misses:" + misses
+                + " revalidations:" + revalidations + " evictions:" + evictions
+                + " memory:" + memorySize + " disk:" + diskSize;
+    }
+}
@@ -0,0 +1,146 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * Fetches the BLOBs of widgets while a screen is updated.</p>
+ * <p>
+ * A widget handler registers the oid of its widget with fetch() and leaves
+ * the widget in its empty state. The BLOB is downloaded and decoded on the
+ * BULK lane of the Protocol, so the BLOBs of one screen are fetched
+ * concurrently on a bounded pool, and the result is applied on the event
+ * dispatch thread. Every request has a key, usually the widget, and a
+ * result is dropped when a newer request with the same key has been made in
+ * the meantime. monsia.disable_async_blob makes fetch() load
+ * in the calling thread. The result is still applied later on the event
+ * dispatch thread, after the screen update, so that a dialog opened by the
+ * apply is laid out and painted.</p>
+ */
+public class BlobFetcher {
+
+    private static final Logger logger = LogManager.getLogger(BlobFetcher.class);
+
+    /**
+     * <p>
+     * Loads a BLOB. Returns null when there is nothing to apply.</p>
+     *
+     * @param <T> the type of the loaded object.
+     */
+    public interface Loader<T> {
+
+        T load(Protocol protocol, String oid) throws IOException;
+    }
+
+    private final Protocol protocol;
+    private final boolean async;
+    // key -> its latest request, until it is applied or fails
+    private final Map<Object, Object> requests;
+
+    BlobFetcher(Protocol protocol) {
+        this.protocol = protocol;
+        this.async = System.getProperty("monsia.disable_async_blob") == null;
+        this.requests = new HashMap<>();
+    }
+
+    /**
+     * <p>
+     * Loads <var>oid</var> with <var>loader</var> and passes the result to
+     * <var>apply</var> on the event dispatch thread.</p>
+     *
+     * @param <T> the type of the loaded object.
+     * @param key the widget the BLOB is shown in, or another key of what a
+     * newer request makes stale, e.g. the oid of a download.
+     * @param oid the object id.
+     * @param loader loads the BLOB. called on a worker thread.
+     * @param apply applies the result. called on the event dispatch thread.
+     */
+    public <T> void fetch(final Object key, final String oid, final Loader<T> loader, final Consumer<T> apply) {
+        final Object request = new Object();
+        synchronized (requests) {
+            requests.put(key, request);
+        }
+        if (!async) {
+            T result;
+            try {
+                result = loader.load(protocol, oid);
+            } catch (IOException ex) {
+                logger.warn(ex);
+                finish(key, request);
+                return;
+            }
+            applyLater(key, request, oid, result, apply);
+            return;
+        }
+        protocol.submit(Lane.BULK, () -> loader.load(protocol, oid)).whenComplete((result, ex) -> {
+            if (ex != null) {
+                logger.warn("cannot fetch blob " + oid + " " + ex.getMessage());
+                finish(key, request);
+                return;
+            }
+            applyLater(key, request, oid, result, apply);
+        });
+    }
+
+    private <T> void applyLater(final Object key, final Object request, final String oid, final T result, final Consumer<T> apply) {
+        SwingUtilities.invokeLater(() -> {
+            if (!finish(key, request)) {
+                logger.debug("drop stale blob " + oid);
+                return;
+            }
+            if (result != null) {
+                apply.accept(result);
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * Forgets <var>request</var>.</p>
+     *
+     * @return whether it was the latest request of <var>key</var>.
+     */
+    private boolean finish(Object key, Object request) {
+        synchronized (requests) {
+            return requests.remove(key, request);
+        }
+    }
+
+    /**
+     * <p>
+     * Drops the pending request of <var>key</var>, if any.</p>
+     */
+    public void cancel(Object key) {
+        synchronized (requests) {
+            requests.remove(key);
+        }
+    }
+}
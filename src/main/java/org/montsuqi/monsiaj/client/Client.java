@@ -23,19 +23,28 @@
 package org.montsuqi.monsiaj.client;
 
 import org.montsuqi.monsiaj.util.Messages;
+import java.awt.SecondaryLoop;
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -43,6 +52,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.monsia.WidgetInfo;
 import org.montsuqi.monsiaj.util.GtkStockIcon;
 import org.montsuqi.monsiaj.util.PopupNotify;
 import org.montsuqi.monsiaj.widgets.ExceptionDialog;
@@ -60,11 +70,16 @@ public class Client {
     private final UIControl uiControl;
     private static final int DEFAULT_PING_TIMER_PERIOD = 7 * 1000;
     private static final int PUSH_CLIENT_PING_TIMER_PERIOD = 180 * 1000;
+    private static final String[] PING_METHODS = {"list_downloads", "get_message"};
     private javax.swing.Timer pingTimer;
     private JSONObject windowStack;
     private String focusedWindow;
     private String focusedWidget;
     private PushReceiver pushReceiver;
+    private ScreenLoader screenLoader;
+    private BlobFetcher blobFetcher;
+    private EventRecorder recorder;
+    private boolean pinging;
     
     public Client(Config conf) throws IOException {
         this.conf = conf;
@@ -76,6 +91,10 @@ public class Client {
         uiControl = new UIControl(this, conf.getStyleURL(n), delay);
         isReceiving = false;
         pushReceiver = null;
+        screenLoader = null;
+        blobFetcher = null;
+        recorder = null;
+        pinging = false;
     }
     
     void connect() throws IOException, GeneralSecurityException, JSONException {
@@ -113,12 +132,19 @@ public class Client {
         }
         
         protocol.getServerInfo();
+        ScreenDefineCache cache = null;
+        if (ScreenDefineCache.isEnabled(protocol.getApplicationVersion())) {
+            cache = new ScreenDefineCache(authURI, protocol.getApplicationVersion());
+        }
+        screenLoader = new ScreenLoader(protocol, cache);
+        blobFetcher = new BlobFetcher(protocol);
         protocol.startSession();
         logger.info("connected session_id:" + protocol.getSessionId());
         startReceiving();
-        windowStack = protocol.getWindow();
+        windowStack = protocol.getWindow(new ScreenDataReader(uiControl));
         updateScreen();
         stopReceiving();
+        recorder = EventRecorder.open();
         
         if (protocol.enablePushClient()) {
             try {
@@ -145,6 +171,9 @@ public class Client {
     void disconnect() {
         try {
             protocol.endSession();
+            if (recorder != null) {
+                recorder.close();
+            }
             pushReceiver.stop();
             logger.info("disconnect session_id:" + protocol.getSessionId());
         } catch (IOException | JSONException e) {
@@ -168,7 +197,45 @@ public class Client {
         pingTimer.start();
     }
     
+    /**
+     * <p>
+     * Applies windowStack to the screen. All windows of the response are
+     * updated in one pass on the event dispatch thread, with layout and
+     * painting held back until the end. See UIControl.beginUpdate().</p>
+     */
     public void updateScreen() throws JSONException, IOException {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    try {
+                        updateScreen();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (InvocationTargetException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+            return;
+        }
+        uiControl.beginUpdate();
+        try {
+            applyWindowStack();
+        } finally {
+            uiControl.endUpdate();
+        }
+    }
+
+    private void applyWindowStack() throws JSONException, IOException {
         JSONObject windowData = windowStack.getJSONObject("window_data");
         focusedWindow = windowData.getString("focused_window");
         focusedWidget = windowData.getString("focused_widget");
@@ -177,19 +244,21 @@ public class Client {
         logger.info("----");
         logger.info("focused_window[" + focusedWindow + "]");
         
+        // load new windows in parallel, then build them in order
+        Map<String, CompletableFuture<List<WidgetInfo>>> loading = new LinkedHashMap<>();
+        for (int i = 0; i < windows.length(); i++) {
+            String windowName = windows.getJSONObject(i).getString("window");
+            if (uiControl.getNode(windowName) == null && !loading.containsKey(windowName)) {
+                loading.put(windowName, screenLoader.load(windowName));
+            }
+        }
         for (int i = 0; i < windows.length(); i++) {
             JSONObject w = windows.getJSONObject(i);
             String putType = w.getString("put_type");
             String windowName = w.getString("window");
             Node node = uiControl.getNode(windowName);
             if (node == null) {
-                String gladeData = protocol.getScreenDefine(windowName);
-                try {
-                    node = new Node(Interface.parseInput(new ByteArrayInputStream(gladeData.getBytes("UTF-8")), uiControl), windowName);
-                } catch (UnsupportedEncodingException ex) {
-                    logger.info(ex, ex);
-                    return;
-                }
+                node = new Node(screenLoader.build(loading.get(windowName), uiControl), windowName);
                 uiControl.putNode(windowName, node);
             }
             logger.info("show window[" + windowName + "] put_type[" + putType + "]");
@@ -206,22 +275,26 @@ public class Client {
         }
         for (int i = 0; i < windows.length(); i++) {
             JSONObject w = windows.getJSONObject(i);
-            JSONObject screenData = w.getJSONObject("screen_data");
             String putType = w.getString("put_type");
             String windowName = w.getString("window");
             JSONObject tmpl = (JSONObject) uiControl.getScreenTemplate(windowName);
-            if (tmpl == null) {
-                if (screenData.length() > 0) {
-                    uiControl.addScreenTemplate(windowName, screenData);
-                    tmpl = screenData;
+            // screen_data is absent when ScreenDataReader has merged it already
+            if (w.has("screen_data")) {
+                JSONObject screenData = w.getJSONObject("screen_data");
+                if (tmpl == null) {
+                    if (screenData.length() > 0) {
+                        uiControl.addScreenTemplate(windowName, screenData);
+                        tmpl = screenData;
+                    }
+                } else {
+                    uiControl.mergeScreenData(windowName, screenData);
                 }
-            } else {
-                uiControl.updateScreenTemplate(tmpl, screenData);
+            }
+            if (putType.matches("new")) {
+                uiControl.invalidateWidgets(windowName);
             }
             if (putType.matches("new") || putType.matches("current")) {
-                Node node = uiControl.getNode(windowName);
-                uiControl.setWidget(node.getInterface(), node.getInterface().getWidgetByLongName(windowName), tmpl);
-                uiControl.showWindow(windowName);
+                uiControl.updateWindow(windowName, tmpl);
             }
         }
         uiControl.setFocus(focusedWindow, focusedWidget);
@@ -254,16 +327,23 @@ public class Client {
                 params.put("event_data", eventData);
                 
                 logger.info("window:" + windowName + " widget:" + widgetName + " event:" + event);
+                if (recorder != null) {
+                    recorder.record(eventData);
+                }
                 
                 long t2 = System.currentTimeMillis();
                 
-                windowStack = protocol.sendEvent(params);
-                int total_exec_time = protocol.getTotalExecTime();
-                int app_exec_time = protocol.getAppExecTime();
+                windowStack = await(protocol.sendEventAsync(params, new ScreenDataReader(uiControl)));
+                uiControl.markSent();
+                int total_exec_time = Protocol.getExecTime(windowStack, "total_exec_time");
+                int app_exec_time = Protocol.getExecTime(windowStack, "app_exec_time");
                 
                 long t3 = System.currentTimeMillis();
                 
                 updateScreen();
+                if (recorder != null) {
+                    recorder.updated();
+                }
                 
                 long t4 = System.currentTimeMillis();
                 
@@ -282,8 +362,38 @@ public class Client {
         }
     }
     
-    private void listDownloads() throws IOException, JSONException {
-        JSONArray array = protocol.listDownloads();
+    /**
+     * <p>
+     * Waits for a request on a lane of the protocol. On the event dispatch
+     * thread, events are dispatched while waiting so that the windows are
+     * repainted; sendEvent ignores input while receiving.</p>
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException, JSONException {
+        if (SwingUtilities.isEventDispatchThread() && !future.isDone()) {
+            SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+            // exit() on the event dispatch thread cannot run before enter()
+            future.whenComplete((r, ex) -> SwingUtilities.invokeLater(loop::exit));
+            loop.enter();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void listDownloads(JSONArray array) {
         logger.debug(array);
         for (int j = 0; j < array.length(); j++) {
             JSONObject item = array.getJSONObject(j);
@@ -302,8 +412,7 @@ public class Client {
         }
     }
     
-    private void getMessage() throws IOException, JSONException {
-        JSONObject result = protocol.getMessage();
+    private void getMessage(JSONObject result) throws IOException, JSONException {
         if (result.has("abort")) {
             String abort = result.getString("abort");
             if (!abort.isEmpty()) {
@@ -329,22 +438,53 @@ public class Client {
         }
     }
     
-    private synchronized void sendPing() {
-        try {
-            if (!isReceiving()) {
-                startReceiving();
-                logger.debug("sendPing");
-                if (!protocol.enablePushClient()) {
-                    listDownloads();
-                }
-                getMessage();
-                stopReceiving();
-            }
-        } catch (IOException | JSONException ex) {
-            logger.catching(Level.FATAL, ex);
-            ExceptionDialog.showExceptionDialog(ex);
-            System.exit(1);
+    /**
+     * <p>
+     * Polls downloads and messages in one batch on the background lane. Called
+     * on the event dispatch thread by the ping timer, which is never blocked by
+     * the requests. The results are handled back on the event dispatch thread;
+     * the files to download are fetched on the bulk lane, so the next ping
+     * does not wait for them or for their dialogs.</p>
+     */
+    private void sendPing() {
+        if (isReceiving() || pinging) {
+            return;
+        }
+        pinging = true;
+        logger.debug("sendPing");
+        CompletableFuture<Object[]> results;
+        if (!protocol.enablePushClient()) {
+            // one round trip for both
+            results = protocol.batchAsync(Lane.BACKGROUND, PING_METHODS, null);
+        } else {
+            results = protocol.getMessageAsync().thenApply((JSONObject m) -> new Object[]{null, m});
         }
+        results.whenComplete((Object[] r, Throwable t) -> {
+            SwingUtilities.invokeLater(() -> {
+                pinging = false;
+                try {
+                    if (t != null) {
+                        throw t instanceof CompletionException ? t.getCause() : t;
+                    }
+                    // a failed call does not discard the result of the other
+                    if (r[0] instanceof JSONArray) {
+                        listDownloads((JSONArray) r[0]);
+                    }
+                    if (r[1] instanceof JSONObject) {
+                        getMessage((JSONObject) r[1]);
+                    }
+                    for (Object result : r) {
+                        if (result instanceof JSONException) {
+                            throw (JSONException) result;
+                        }
+                    }
+                } catch (Throwable ex) {
+                    logger.catching(Level.FATAL, ex);
+                    ExceptionDialog.showExceptionDialog(ex);
+                    System.exit(1);
+                }
+            });
+        });
     }
     
     public boolean isReceiving() {
@@ -366,4 +506,8 @@ public class Client {
     public Protocol getProtocol() {
         return protocol;
     }
+
+    public BlobFetcher getBlobFetcher() {
+        return blobFetcher;
+    }
 }
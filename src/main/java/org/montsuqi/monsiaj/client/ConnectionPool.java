@@ -0,0 +1,240 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * A pool of HTTP/1.1 keep-alive connections shared by the JSON-RPC and REST
+ * traffic of a Protocol.</p>
+ * <p>
+ * Sockets are kept warm by the keep-alive cache of HttpURLConnection. A socket
+ * goes back to that cache only when its response body has been read to the
+ * end and closed, and the connection has not been disconnected, so every
+ * connection opened here must be given back with release() or evict().</p>
+ * <p>
+ * All https connections share one SSLSocketFactory so that TLS sessions are
+ * resumed instead of renegotiated. The number of connections in use is
+ * limited per endpoint(scheme, host and port) to
+ * monsia.http.max_connections(default 4). Threads marked with
+ * setBackground() may use all but one of them, so that interactive calls
+ * never wait behind background pings or blob transfers. Idle sockets are
+ * closed by the keep-alive cache after the server's Keep-Alive timeout, or
+ * after 5 seconds when the server does not send one.</p>
+ */
+class ConnectionPool {
+
+    static final Logger logger = LogManager.getLogger(ConnectionPool.class);
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 4;
+    private static final ThreadLocal<Boolean> BACKGROUND = ThreadLocal.withInitial(() -> false);
+
+    static {
+        // must be set before HttpURLConnection's keep-alive cache is created
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(getMaxConnections()));
+        }
+    }
+
+    private final Map<String, Endpoint> endpoints;
+    private final Map<HttpURLConnection, Endpoint> inUse;
+    private final int maxConnections;
+    private SSLSocketFactory sslSocketFactory;
+
+    ConnectionPool() {
+        endpoints = new HashMap<>();
+        inUse = new HashMap<>();
+        maxConnections = getMaxConnections();
+        sslSocketFactory = null;
+    }
+
+    private static int getMaxConnections() {
+        if (System.getProperty("monsia.http.max_connections") != null) {
+            return Integer.parseInt(System.getProperty("monsia.http.max_connections"));
+        }
+        return DEFAULT_MAX_CONNECTIONS;
+    }
+
+    /**
+     * <p>
+     * Marks the current thread as a background thread, which leaves one
+     * connection of each endpoint to the other threads.</p>
+     */
+    static void setBackground() {
+        BACKGROUND.set(true);
+    }
+
+    void setSSLSocketFactory(SSLSocketFactory factory) {
+        this.sslSocketFactory = factory;
+    }
+
+    /**
+     * <p>
+     * Opens a connection to <var>url</var>, waiting while the endpoint already
+     * has as many connections in use as allowed to the current thread.</p>
+     *
+     * @param url the target.
+     * @param proxy proxy setting passed to openConnection. null to use the
+     * system default.
+     * @return an unconnected HttpURLConnection.
+     * @throws IOException on bad protocol or when interrupted while waiting.
+     */
+    HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        String protocol = url.getProtocol();
+        if (!protocol.equals("https") && !protocol.equals("http")) {
+            throw new IOException("bad protocol");
+        }
+        Endpoint endpoint = getEndpoint(url);
+        try {
+            endpoint.acquire(BACKGROUND.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        HttpURLConnection con;
+        try {
+            if (proxy != null) {
+                con = (HttpURLConnection) url.openConnection(proxy);
+            } else {
+                con = (HttpURLConnection) url.openConnection();
+            }
+        } catch (IOException | RuntimeException ex) {
+            endpoint.release();
+            throw ex;
+        }
+        if (con instanceof HttpsURLConnection && sslSocketFactory != null) {
+            ((HttpsURLConnection) con).setSSLSocketFactory(sslSocketFactory);
+        }
+        con.setRequestProperty("Connection", "keep-alive");
+        synchronized (this) {
+            inUse.put(con, endpoint);
+        }
+        return con;
+    }
+
+    /**
+     * <p>
+     * Gives a connection back after the response has been handled. Any unread
+     * part of the body is drained so that the socket can be reused. Note that
+     * disconnect() must not be called on such a connection, it would close
+     * the socket even though it is already back in the keep-alive cache.</p>
+     *
+     * @param con a connection obtained from open().
+     */
+    void release(HttpURLConnection con) {
+        Endpoint endpoint = take(con);
+        if (endpoint == null) {
+            return;
+        }
+        try {
+            InputStream in = con.getResponseCode() >= 400 ? con.getErrorStream() : con.getInputStream();
+            if (in != null) {
+                drain(in);
+            }
+        } catch (IOException ex) {
+            // already closed by the caller, or broken and dropped by the cache
+            logger.debug(ex);
+        } finally {
+            endpoint.release();
+        }
+    }
+
+    /**
+     * <p>
+     * Gives a connection back and closes its socket. Used when the connection
+     * is in an unknown state, e.g. after an I/O error. Does nothing when the
+     * connection has already been given back.</p>
+     *
+     * @param con a connection obtained from open().
+     */
+    void evict(HttpURLConnection con) {
+        Endpoint endpoint = take(con);
+        if (endpoint == null) {
+            // already given back
+            return;
+        }
+        con.disconnect();
+        endpoint.release();
+    }
+
+    private synchronized Endpoint take(HttpURLConnection con) {
+        return inUse.remove(con);
+    }
+
+    private synchronized Endpoint getEndpoint(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + port;
+        Endpoint endpoint = endpoints.get(key);
+        if (endpoint == null) {
+            endpoint = new Endpoint(maxConnections);
+            endpoints.put(key, endpoint);
+        }
+        return endpoint;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        try {
+            byte[] buf = new byte[4096];
+            while (in.read(buf) != -1) {
+                // discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Endpoint {
+
+        private final int max;
+        private int inUse;
+
+        Endpoint(int max) {
+            this.max = Math.max(1, max);
+            this.inUse = 0;
+        }
+
+        synchronized void acquire(boolean background) throws InterruptedException {
+            int limit = background ? Math.max(1, max - 1) : max;
+            while (inUse >= limit) {
+                wait();
+            }
+            inUse++;
+        }
+
+        synchronized void release() {
+            inUse--;
+            notifyAll();
+        }
+    }
+}
@@ -9,16 +9,15 @@ import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.CompletionException;
 import javax.print.PrintService;
 import javax.swing.AbstractAction;
 import javax.swing.JDialog;
+import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -72,6 +71,47 @@ public class Download {
         closeButton.requestFocus();
     }
 
+    /**
+     * <p>
+     * Something done with a downloaded file on the event dispatch
+     * thread.</p>
+     */
+    private interface Action {
+
+        void run() throws IOException;
+    }
+
+    /**
+     * <p>
+     * Downloads <var>oid</var> into <var>file</var> on the bulk lane, then
+     * runs <var>done</var>, or <var>failed</var> if the download or
+     * <var>done</var> fails, on the event dispatch thread. Returns at
+     * once.</p>
+     */
+    private static void fetch(Protocol protocol, String oid, File file, Action done, Runnable failed) {
+        protocol.getBLOBAsync(oid, file).whenComplete((Integer code, Throwable t) -> {
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    if (t != null) {
+                        throw t instanceof CompletionException ? t.getCause() : t;
+                    }
+                    done.run();
+                } catch (IOException ex) {
+                    logger.catching(Level.WARN, ex);
+                    failed.run();
+                } catch (Throwable ex) {
+                    logger.catching(Level.ERROR, ex);
+                    failed.run();
+                }
+            });
+        });
+    }
+
+    /**
+     * <p>
+     * Prints or shows a report. The report is downloaded in the background,
+     * so this returns before it is printed.</p>
+     */
     public static void printReport(Config conf, Protocol protocol, JSONObject item) {
         try {
             logger.info("printReport:" + item.toString());
@@ -102,50 +142,55 @@ public class Download {
                 showdialog = true;
             }
 
-            try {
-                Date date = new Date();
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
-                String prefix = "report_" + sdf.format(date) + "_";
-                File file = TempFile.createTempFile(prefix, "pdf");
-                if (System.getProperty("monsia.save.print_data") != null) {
-                } else {
-                    file.deleteOnExit();
-                }
-                OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
-                protocol.getBLOB(oid, out);
-                if (showdialog) {
-                    showReportDialog(title, file);
+            final String fPrinter = printer;
+            final String fTitle = title;
+            final boolean fShowdialog = showdialog;
+            Date date = new Date();
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
+            String prefix = "report_" + sdf.format(date) + "_";
+            final File file = TempFile.createTempFile(prefix, "pdf");
+            if (System.getProperty("monsia.save.print_data") != null) {
+            } else {
+                file.deleteOnExit();
+            }
+            fetch(protocol, oid, file, () -> {
+                if (fShowdialog) {
+                    showReportDialog(fTitle, file);
                 } else {
                     int cp = 1;
                     PrintService ps = null;
-                    if (printer != null) {
-                        ps = conf.getPrintService(printer);
-                        cp = conf.getCopies(printer);
+                    if (fPrinter != null) {
+                        ps = conf.getPrintService(fPrinter);
+                        cp = conf.getCopies(fPrinter);
                     }
                     if (ps != null) {
                         PopupNotify.popup(Messages.getString("PrintReport.notify_summary"),
                                 Messages.getString("PrintReport.notify_print_start") + "\n\n"
-                                + Messages.getString("PrintReport.printer") + printer + "\n\n"
-                                + Messages.getString("PrintReport.title") + title,
+                                + Messages.getString("PrintReport.printer") + fPrinter + "\n\n"
+                                + Messages.getString("PrintReport.title") + fTitle,
                                 GtkStockIcon.get("gtk-print"), 0);
                         PDFPrint.print(file,cp,ps);
                     } else {
-                        showReportDialog(title, file);
+                        showReportDialog(fTitle, file);
                     }
                 }
-            } catch (IOException ex) {
-                logger.catching(Level.WARN, ex);
+            }, () -> {
                 PopupNotify.popup(Messages.getString("PrintReport.notify_summary"),
                         Messages.getString("PrintReport.notify_print_fail") + "\n\n"
-                        + Messages.getString("PrintReport.printer") + printer + "\n"
-                        + Messages.getString("PrintReport.title") + title,
+                        + Messages.getString("PrintReport.printer") + fPrinter + "\n"
+                        + Messages.getString("PrintReport.title") + fTitle,
                         GtkStockIcon.get("gtk-dialog-error"), 0);
-            }
+            });
         } catch (JSONException ex) {
             logger.catching(Level.WARN, ex);
         }
     }    
     
+    /**
+     * <p>
+     * Shows the dialog to save a file. The file is downloaded in the
+     * background, so this returns before the dialog is shown.</p>
+     */
     public static void downloadFile(Config conf,Protocol protocol, JSONObject item)  {
         try {
             logger.info("downloadFile:" + item.toString());            
@@ -165,21 +210,20 @@ public class Download {
             if (oid == null || oid.equals("0")) {
                 return;
             }
-            try {
-                File temp = TempFile.createTempFile("downloadfile", filename);
-                temp.deleteOnExit();
-                OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
-                protocol.getBLOB(oid, out);
+            final String fFilename = filename;
+            final String fDesc = desc;
+            final File temp = TempFile.createTempFile("downloadfile", filename);
+            temp.deleteOnExit();
+            fetch(protocol, oid, temp, () -> {
                 PandaDownload pd = new PandaDownload();
-                pd.showDialog(filename, desc, temp);
-            } catch (IOException ex) {
-                logger.catching(Level.WARN, ex);
+                pd.showDialog(fFilename, fDesc, temp);
+            }, () -> {
                 PopupNotify.popup(Messages.getString("DownloadFile.notify_summary"),
                         Messages.getString("DownloadFile.fail") + "\n\n"
-                        + Messages.getString("DownloadFile.filename") + filename + "\n"
-                        + Messages.getString("DownloadFile.description") + desc,
+                        + Messages.getString("DownloadFile.filename") + fFilename + "\n"
+                        + Messages.getString("DownloadFile.description") + fDesc,
                         GtkStockIcon.get("gtk-dialog-error"), 0);
-            }
+            });
         } catch (JSONException ex) {
             logger.catching(Level.WARN, ex);
         }
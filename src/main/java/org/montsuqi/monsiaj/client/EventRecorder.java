@@ -0,0 +1,96 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * Records the events of a session as a script of LoadGenerator.</p>
+ * <p>
+ * Enabled with monsia.record_events=&lt;file&gt;. Each send_event is appended
+ * as a line of JSON:</p>
+ * <pre>
+ * {"method":"send_event","think":&lt;ms&gt;,"event_data":{...}}
+ * </pre>
+ * <p>
+ * think is the time from the previous screen update to the event.</p>
+ */
+class EventRecorder {
+
+    private static final Logger logger = LogManager.getLogger(EventRecorder.class);
+
+    private final PrintWriter out;
+    private long last;
+
+    private EventRecorder(PrintWriter out) {
+        this.out = out;
+        this.last = System.currentTimeMillis();
+    }
+
+    /**
+     * @return a recorder, or null when recording is off or the file cannot
+     * be opened.
+     */
+    static EventRecorder open() {
+        String file = System.getProperty("monsia.record_events");
+        if (file == null) {
+            return null;
+        }
+        try {
+            logger.info("record events to " + file);
+            return new EventRecorder(new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)));
+        } catch (IOException ex) {
+            logger.warn("cannot record events " + ex.getMessage());
+            return null;
+        }
+    }
+
+    synchronized void record(JSONObject eventData) {
+        JSONObject step = new JSONObject();
+        step.put("method", "send_event");
+        step.put("think", System.currentTimeMillis() - last);
+        step.put("event_data", eventData);
+        out.println(step.toString());
+        out.flush();
+    }
+
+    /**
+     * <p>
+     * Marks the end of a screen update.</p>
+     */
+    synchronized void updated() {
+        last = System.currentTimeMillis();
+    }
+
+    synchronized void close() {
+        out.close();
+    }
+}
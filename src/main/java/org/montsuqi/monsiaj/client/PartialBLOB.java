@@ -0,0 +1,204 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.montsuqi.monsiaj.util.TempFile;
+
+/**
+ * <p>
+ * A partial BLOB download kept for a later download of the same object.</p>
+ * <p>
+ * A download that fails for good leaves the bytes it has read under
+ * TempFile.tempDir/partial/, in a file named by the object id, the complete
+ * length and the If-Range validator: a strong ETag or Last-Modified. The
+ * next download of the object takes the file and resumes from its end. A
+ * download without a validator is not kept. take() moves the file away, so
+ * a partial file is used by one download at a time.</p>
+ */
+final class PartialBLOB {
+
+    private static final Logger logger = LogManager.getLogger(PartialBLOB.class);
+    private static final File DIR = new File(TempFile.tempDir, "partial");
+
+    private final File file;
+    private final long offset;
+    private final long length;
+    private final String etag;
+    private final long lastModified;
+
+    private PartialBLOB(File file, long length, String etag, long lastModified) {
+        this.file = file;
+        this.offset = file.length();
+        this.length = length;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * <p>
+     * The complete length, or -1 if unknown.</p>
+     */
+    long getLength() {
+        return length;
+    }
+
+    String getETag() {
+        return etag;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * <p>
+     * Creates the name of a file to download into.</p>
+     */
+    static File createWorkFile() {
+        DIR.mkdirs();
+        return new File(DIR, "work_" + UUID.randomUUID().toString());
+    }
+
+    /**
+     * <p>
+     * Takes the partial file of <var>oid</var> left by an earlier
+     * download.</p>
+     *
+     * @return the partial download, or null if there is none.
+     */
+    static PartialBLOB take(String oid) {
+        String prefix = getPrefix(oid);
+        File[] files = DIR.listFiles((dir, name) -> name.startsWith(prefix));
+        if (files == null) {
+            return null;
+        }
+        for (File f : files) {
+            String[] v = f.getName().substring(prefix.length()).split("_");
+            if (v.length != 2 || v[1].isEmpty()) {
+                continue;
+            }
+            long length;
+            String etag = null;
+            long lastModified = 0;
+            try {
+                length = Long.parseLong(v[0]);
+                if (v[1].charAt(0) == 'e') {
+                    etag = new String(decodeHex(v[1].substring(1)), StandardCharsets.UTF_8);
+                } else {
+                    lastModified = Long.parseLong(v[1].substring(1));
+                }
+            } catch (IllegalArgumentException ex) {
+                continue;
+            }
+            File work = createWorkFile();
+            try {
+                Files.move(f.toPath(), work.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                // taken by another download
+                continue;
+            }
+            if (work.length() == 0) {
+                work.delete();
+                continue;
+            }
+            return new PartialBLOB(work, length, etag, lastModified);
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Keeps <var>work</var> as the partial file of <var>oid</var>, or deletes
+     * it if it is empty or there is no validator.</p>
+     *
+     * @param oid object id.
+     * @param work the file the download wrote.
+     * @param length the complete length, or -1 if unknown.
+     * @param etag ETag of the response, or null.
+     * @param lastModified Last-Modified of the response, or 0.
+     */
+    static void keep(String oid, File work, long length, String etag, long lastModified) {
+        String validator = null;
+        if (etag != null && !etag.startsWith("W/")) {
+            validator = "e" + encodeHex(etag.getBytes(StandardCharsets.UTF_8));
+        } else if (lastModified != 0) {
+            validator = "m" + lastModified;
+        }
+        if (validator != null && work.length() > 0) {
+            File file = new File(DIR, getPrefix(oid) + length + "_" + validator);
+            try {
+                Files.move(work.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                logger.info("keep partial blob " + oid + " " + file.length() + "/" + length);
+                return;
+            } catch (IOException ex) {
+                logger.warn("cannot keep partial blob " + oid + " " + ex.getMessage());
+            }
+        }
+        work.delete();
+    }
+
+    private static String getPrefix(String oid) {
+        return "partial_" + encodeHex(oid.getBytes(StandardCharsets.UTF_8)) + "_";
+    }
+
+    private static String encodeHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] decodeHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException(hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException(hex);
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+}
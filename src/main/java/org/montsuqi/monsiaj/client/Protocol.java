@@ -22,21 +22,49 @@
  */
 package org.montsuqi.monsiaj.client;
 
+import org.montsuqi.monsiaj.client.metrics.Metrics;
+import org.montsuqi.monsiaj.client.metrics.RPCMetrics;
 import org.montsuqi.monsiaj.util.Messages;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import org.montsuqi.monsiaj.util.Transfer;
+import org.montsuqi.monsiaj.util.CountingInputStream;
+import org.montsuqi.monsiaj.util.CountingOutputStream;
+import java.awt.GraphicsEnvironment;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.Authenticator;
 import java.net.HttpURLConnection;
 import java.net.PasswordAuthentication;
 import java.net.URL;
 import java.net.Proxy;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
-import javax.net.ssl.HttpsURLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import javax.net.ssl.SSLSocketFactory;
 import javax.swing.JOptionPane;
 import org.apache.logging.log4j.LogManager;
@@ -44,6 +72,7 @@ import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 /**
  * <p>
@@ -57,7 +86,7 @@ public class Protocol {
     private String protocolVersion;
     private String applicationVersion;
     private String serverType;
-    private int rpcId;
+    private final AtomicInteger rpcId;
     private String sessionId;
     private String tenantId;
     private String groupId;
@@ -70,11 +99,27 @@ public class Protocol {
     private final String password;
     private boolean usePushClient;
 
-    private int totalExecTime;
-    private int appExecTime;
+    private volatile int totalExecTime;
+    private volatile int appExecTime;
 
     private SSLSocketFactory sslSocketFactory;
+    private final ConnectionPool pool;
+    private volatile boolean compressRequest;
+    private volatile boolean useBatch;
+    private volatile boolean headless;
+    private BlobCache blobCache;
+    private final Map<Lane, ExecutorService> lanes;
+    private static final int DEFAULT_BULK_THREADS = 2;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int COMPRESS_MIN_SIZE = 1024;
+    private static final int DEFAULT_BLOB_MAX_RETRIES = 3;
+    private static final long RETRY_INTERVAL = 1000;
     static final String PANDA_CLIENT_VERSION = "2.0.1";
+    private static final boolean PROFILE = System.getProperty("monsia.do_profile") != null;
+    private static final boolean DEBUG_JSONRPC = System.getProperty("monsia.debug.jsonrpc") != null;
+    private static final boolean DISABLE_BATCH = System.getProperty("monsia.disable_batch") != null;
+    // the stream decoder skips the response text the debug log prints
+    private static final boolean STREAM_DECODER = !DEBUG_JSONRPC && System.getProperty("monsia.disable_stream_decoder") == null;
 
     private int sslType;
 
@@ -93,7 +138,7 @@ public class Protocol {
     private String certFilePassphrase;
 
     public Protocol(String authURI, final String user, final String pass) throws IOException, GeneralSecurityException {
-        this.rpcId = 1;
+        this.rpcId = new AtomicInteger(1);
         this.authURI = authURI;
         this.user = user;
         this.password = pass;
@@ -105,6 +150,40 @@ public class Protocol {
         this.tenantId = null;
         this.groupId = null;
         this.startupMessage = null;
+        this.pool = new ConnectionPool();
+        this.compressRequest = useCompression() && System.getProperty("monsia.http.compress_request") != null;
+        this.useBatch = true;
+        this.headless = GraphicsEnvironment.isHeadless();
+        this.lanes = new EnumMap<>(Lane.class);
+        lanes.put(Lane.INTERACTIVE, newLaneExecutor(Lane.INTERACTIVE, 1));
+        lanes.put(Lane.BACKGROUND, newLaneExecutor(Lane.BACKGROUND, 1));
+        lanes.put(Lane.BULK, newLaneExecutor(Lane.BULK, getBulkThreads()));
+
+        // credentials are given only to the auth endpoint
+        Authenticator.setDefault(new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                URL url = getRequestingURL();
+                if (url != null && url.toString().equals(Protocol.this.authURI)) {
+                    return new PasswordAuthentication(user, password.toCharArray());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * In headless mode a fatal server error(auth error, maintenance and other
+     * http errors) throws a ServerErrorException instead of showing a dialog
+     * and exiting. It is on by default when there is no display.</p>
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+    public boolean isHeadless() {
+        return headless;
     }
 
     public boolean enablePushClient() {
@@ -151,20 +230,127 @@ public class Protocol {
         return certFilePassphrase;
     }
 
+    /**
+     * <p>
+     * Returns total_exec_time of the last completed call. Calls may run
+     * concurrently, use getExecTime() with the result of a specific call
+     * instead.</p>
+     */
     public int getTotalExecTime() {
         return totalExecTime;
     }
 
+    /**
+     * <p>
+     * Returns app_exec_time of the last completed call. See
+     * getTotalExecTime().</p>
+     */
     public int getAppExecTime() {
         return appExecTime;
     }
 
+    /**
+     * <p>
+     * Returns an execution time reported in the meta of a call result.</p>
+     *
+     * @param result result of a call.
+     * @param key total_exec_time or app_exec_time.
+     * @return the time in milliseconds, or 0 if not reported.
+     */
+    public static int getExecTime(JSONObject result, String key) {
+        if (result != null && result.has("meta")) {
+            JSONObject meta = result.getJSONObject("meta");
+            if (meta.has(key)) {
+                return meta.getInt(key);
+            }
+        }
+        return 0;
+    }
+
+    private static int getBulkThreads() {
+        if (System.getProperty("monsia.bulk_threads") != null) {
+            return Math.max(1, Integer.parseInt(System.getProperty("monsia.bulk_threads")));
+        }
+        return DEFAULT_BULK_THREADS;
+    }
+
+    private static ExecutorService newLaneExecutor(Lane lane, int threads) {
+        final String name = "monsia-" + lane.name().toLowerCase() + "-";
+        final AtomicInteger seq = new AtomicInteger(1);
+        final boolean background = lane != Lane.INTERACTIVE;
+        return Executors.newFixedThreadPool(threads, (Runnable r) -> {
+            Thread t = new Thread(() -> {
+                if (background) {
+                    ConnectionPool.setBackground();
+                }
+                r.run();
+            }, name + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * <p>
+     * Runs <var>task</var> on the threads of <var>lane</var>.</p>
+     *
+     * @param <T> result type.
+     * @param lane the lane to run on.
+     * @param task the task, usually a call of a synchronous method.
+     * @return a future completed with the result or the exception of the
+     * task.
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        lanes.get(lane).execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<JSONObject> sendEventAsync(JSONObject params) {
+        return sendEventAsync(params, null);
+    }
+
+    CompletableFuture<JSONObject> sendEventAsync(JSONObject params, ScreenDataReader reader) {
+        return submit(Lane.INTERACTIVE, () -> sendEvent(params, reader));
+    }
+
+    public CompletableFuture<JSONObject> getMessageAsync() {
+        return submit(Lane.BACKGROUND, () -> getMessage());
+    }
+
+    public CompletableFuture<JSONArray> listDownloadsAsync() {
+        return submit(Lane.BACKGROUND, () -> listDownloads());
+    }
+
+    public CompletableFuture<Integer> getBLOBAsync(String oid, File file) {
+        return submit(Lane.BULK, () -> getBLOB(oid, file));
+    }
+
+    public CompletableFuture<Integer> getBLOBAsync(String oid, OutputStream out) {
+        return submit(Lane.BULK, () -> getBLOB(oid, out));
+    }
+
+    public CompletableFuture<String> postBLOBAsync(byte[] in) {
+        return submit(Lane.BULK, () -> postBLOB(in));
+    }
+
+    public CompletableFuture<String> postBLOBAsync(Path path, Transfer.Listener listener) {
+        return submit(Lane.BULK, () -> postBLOB(path, listener));
+    }
+
     public void makeSSLSocketFactory(final String caCert) throws IOException, GeneralSecurityException {
         if (caCert == null || caCert.isEmpty()) {
             sslSocketFactory = null;
         } else {
             SSLSocketFactoryHelper helper = new SSLSocketFactoryHelper();
             sslSocketFactory = helper.getFactory(caCert, "", "");
+            pool.setSSLSocketFactory(sslSocketFactory);
             sslType = TYPE_SSL_NO_CERT;
             this.caCert = caCert;
         }
@@ -173,6 +359,7 @@ public class Protocol {
     public void makeSSLSocketFactoryPKCS12(final String caCert, final String certFile, final String certFilePass) throws IOException, GeneralSecurityException {
         SSLSocketFactoryHelper helper = new SSLSocketFactoryHelper();
         sslSocketFactory = helper.getFactory(caCert, certFile, certFilePass);
+        pool.setSSLSocketFactory(sslSocketFactory);
         this.sslType = TYPE_SSL_PKCS12;
         this.caCert = caCert;
         this.certFile = certFile;
@@ -182,52 +369,34 @@ public class Protocol {
     public void makeSSLSocketFactoryPKCS11(final String caCert, final String p11Lib, final String p11Slot) throws IOException, GeneralSecurityException {
         SSLSocketFactoryHelper helper = new SSLSocketFactoryHelper();
         sslSocketFactory = helper.getFactoryPKCS11(caCert, p11Lib, p11Slot);
+        pool.setSSLSocketFactory(sslSocketFactory);
         this.sslType = TYPE_SSL_PKCS11;
     }
 
     private HttpURLConnection getHttpURLConnection(String strURL) throws IOException {
-        URL url = new URL(strURL);
-        HttpURLConnection con = (HttpURLConnection) url.openConnection(Proxy.NO_PROXY);
-
-        if (strURL.startsWith("https")) {
-            if (sslSocketFactory != null) {
-                ((HttpsURLConnection) con).setSSLSocketFactory(sslSocketFactory);
-            }
-        }
-        if (strURL.equals(authURI)) {
-            Authenticator.setDefault(new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(user, password.toCharArray());
-                }
-            });
-        } else {
-            Authenticator.setDefault(null);
-        }
-        return con;
+        return pool.open(new URL(strURL), Proxy.NO_PROXY);
     }
 
-    private String makeJSONRPCRequest(String method, JSONObject params) throws JSONException {
+    private String makeJSONRPCRequest(int id, String method, JSONObject params) throws JSONException {
         JSONObject obj = new JSONObject();
         obj.put("jsonrpc", "2.0");
-        obj.put("id", rpcId);
+        obj.put("id", id);
         obj.put("method", method);
         obj.put("params", params);
-        rpcId += 1;
         return obj.toString();
     }
 
-    private Object checkJSONRPCResponse(String jsonStr) throws JSONException {
-        totalExecTime = 0;
-        appExecTime = 0;
+    private Object checkJSONRPCResponse(String jsonStr, int expected) throws JSONException {
+        return checkJSONRPCResponse(new JSONObject(jsonStr), expected);
+    }
 
-        JSONObject obj = new JSONObject(jsonStr);
+    private Object checkJSONRPCResponse(JSONObject obj, int expected) throws JSONException {
         if (!obj.getString("jsonrpc").matches("2.0")) {
             throw new JSONException("invalid jsonrpc version");
         }
         int id = obj.getInt("id");
-        if (id != (this.rpcId - 1)) {
-            throw new JSONException("invalid jsonrpc id:" + id + " expected:" + (this.rpcId - 1));
+        if (id != expected) {
+            throw new JSONException("invalid jsonrpc id:" + id + " expected:" + expected);
         }
         if (obj.has("error")) {
             JSONObject objError = obj.getJSONObject("error");
@@ -241,103 +410,384 @@ public class Protocol {
         Object result = obj.get("result");
         if (result instanceof JSONObject) {
             JSONObject res = (JSONObject) result;
-            if (res.has("meta")) {
-                JSONObject meta = (JSONObject) ((JSONObject) result).getJSONObject("meta");
-                if (meta.has("total_exec_time")) {
-                    totalExecTime = meta.getInt("total_exec_time");
-                }
-                if (meta.has("app_exec_time")) {
-                    appExecTime = meta.getInt("app_exec_time");
-                }
-            }
+            totalExecTime = getExecTime(res, "total_exec_time");
+            appExecTime = getExecTime(res, "app_exec_time");
+        } else {
+            totalExecTime = 0;
+            appExecTime = 0;
         }
 
         return result;
     }
 
-    private ByteArrayOutputStream getHTTPBody(HttpURLConnection con) {
-        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream()) {
-            try (BufferedOutputStream bos = new BufferedOutputStream(bytes)) {
-                BufferedInputStream bis = new BufferedInputStream(con.getInputStream());
-                int length;
-                while ((length = bis.read()) != -1) {
-                    bos.write(length);
+    private static boolean useCompression() {
+        return System.getProperty("monsia.http.disable_compression") == null;
+    }
+
+    private void setAcceptEncoding(HttpURLConnection con) {
+        if (useCompression()) {
+            con.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
+    }
+
+    /**
+     * <p>
+     * Wraps a response body stream with the decoder for its
+     * Content-Encoding.</p>
+     * <p>
+     * A gzip response does not mean that gzip requests are accepted, since a
+     * reverse proxy may compress responses for a server that cannot decode
+     * requests. Requests are compressed only with
+     * monsia.http.compress_request, or when get_server_info lists gzip in
+     * accept_encoding.</p>
+     */
+    private InputStream decodeBody(HttpURLConnection con, InputStream in) throws IOException {
+        String encoding = con.getContentEncoding();
+        if (encoding == null) {
+            return in;
+        }
+        encoding = encoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } else if (encoding.equals("deflate")) {
+            return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // not ended by InflaterInputStream when given
+                        inf.end();
+                    }
                 }
-            }
-            return bytes;
+            };
+        }
+        return in;
+    }
+
+    private static long getDecodedLength(HttpURLConnection con) {
+        if (con.getContentEncoding() != null) {
+            return -1;
+        }
+        return con.getContentLengthLong();
+    }
+
+    private ByteArrayOutputStream getHTTPBody(HttpURLConnection con, CountingInputStream wire) {
+        try (InputStream in = decodeBody(con, wire)) {
+            return new Transfer("http_body").readAll(in, getDecodedLength(con));
         } catch (IOException ex) {
             return new ByteArrayOutputStream();
         }
     }
 
     private ByteArrayOutputStream getHTTPErrorBody(HttpURLConnection con) {
-        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream()) {
-            try (BufferedOutputStream bos = new BufferedOutputStream(bytes)) {
-                BufferedInputStream bis = new BufferedInputStream(con.getErrorStream());
-                int length;
-                while ((length = bis.read()) != -1) {
-                    bos.write(length);
-                }
+        try (InputStream in = con.getErrorStream()) {
+            if (in == null) {
+                return new ByteArrayOutputStream();
             }
-            return bytes;
+            return new Transfer("http_error_body").readAll(decodeBody(con, in), getDecodedLength(con));
         } catch (IOException ex) {
             return new ByteArrayOutputStream();
         }
     }
 
-    private void showHTTPErrorMessage(int code, String message) {
+    /**
+     * <p>
+     * Writes a request body, gzipped when <var>gzip</var> is true.</p>
+     *
+     * @return number of bytes sent.
+     */
+    private static long writeBody(HttpURLConnection con, byte[] body, boolean gzip) throws IOException {
+        if (gzip) {
+            con.setRequestProperty("Content-Encoding", "gzip");
+        }
+        CountingOutputStream wire = new CountingOutputStream(con.getOutputStream());
+        try (OutputStream out = gzip ? new GZIPOutputStream(wire, BUFFER_SIZE) : wire) {
+            out.write(body);
+            out.flush();
+        }
+        return wire.getCount();
+    }
+
+    /**
+     * <p>
+     * Whether a response to a compressed request means that the server could
+     * not read it. Only 415 is taken as such, since a request answered with
+     * another error may have been carried out, and must not be sent
+     * again.</p>
+     */
+    private static boolean isCompressionRefused(int code) {
+        return code == 415;
+    }
+
+    private boolean compressRequest(byte[] body) {
+        return compressRequest && useCompression() && body.length >= COMPRESS_MIN_SIZE;
+    }
+
+    private void showHTTPErrorMessage(int code, String message) throws ServerErrorException {
         logger.info("http error: " + code + " " + message);
-        JOptionPane.showMessageDialog(null, "http status code: " + code + "\n\n" + message, "http error", JOptionPane.ERROR_MESSAGE);
+        exitOnError(code, "http error", "http status code: " + code + "\n\n" + message);
+    }
+
+    /**
+     * <p>
+     * Shows an error the session cannot go on after, and exits. In headless
+     * mode a ServerErrorException is thrown instead.</p>
+     */
+    private void exitOnError(int code, String title, String message) throws ServerErrorException {
+        if (headless) {
+            throw new ServerErrorException(code, title + ": " + message.replace("\n\n", " "));
+        }
+        JOptionPane.showMessageDialog(null, message, title, JOptionPane.ERROR_MESSAGE);
         System.exit(0);
     }
 
-    private synchronized Object jsonRPC(String url, String method, JSONObject params) throws JSONException, IOException {
+    private Object jsonRPC(String url, String method, JSONObject params) throws JSONException, IOException {
+        return jsonRPC(url, method, params, null);
+    }
+
+    private Object jsonRPC(String url, String method, JSONObject params, ScreenDataReader reader) throws JSONException, IOException {
         long st = System.currentTimeMillis();
-        String reqStr = makeJSONRPCRequest(method, params);
-        if (System.getProperty("monsia.debug.jsonrpc") != null) {
+        int id = rpcId.getAndIncrement();
+        String reqStr = makeJSONRPCRequest(id, method, params);
+        if (DEBUG_JSONRPC) {
             logger.info("---- JSONRPC request");
             logger.info(reqStr);
             logger.info("----");
         }
+        byte[] req = reqStr.getBytes("UTF-8");
+        try {
+            PostedRequest posted = sendJSONRPC(url, req);
+            try {
+                return readJSONRPC(posted.con, id, method, req.length, posted.wireBytes, st, reader);
+            } catch (IOException | RuntimeException ex) {
+                pool.evict(posted.con);
+                throw ex;
+            }
+        } catch (IOException | RuntimeException ex) {
+            Metrics.getRPCMetrics(method).error();
+            throw ex;
+        }
+    }
+
+    private static class PostedRequest {
+
+        private final HttpURLConnection con;
+        private final long wireBytes;
+
+        PostedRequest(HttpURLConnection con, long wireBytes) {
+            this.con = con;
+            this.wireBytes = wireBytes;
+        }
+    }
+
+    /**
+     * <p>
+     * Posts a JSON-RPC request body. When the server refuses a compressed
+     * body, it is resent uncompressed. The response is left unread.</p>
+     */
+    private PostedRequest sendJSONRPC(String url, byte[] req) throws IOException {
+        boolean gzip = compressRequest(req);
         HttpURLConnection con = getHttpURLConnection(url);
+        try {
+            long wireBytes = postJSONRPC(con, req, gzip);
+            if (gzip && isCompressionRefused(con.getResponseCode())) {
+                logger.info("server does not accept compressed requests: " + con.getResponseCode());
+                compressRequest = false;
+                pool.release(con);
+                con = getHttpURLConnection(url);
+                wireBytes = postJSONRPC(con, req, false);
+            }
+            return new PostedRequest(con, wireBytes);
+        } catch (IOException | RuntimeException ex) {
+            pool.evict(con);
+            throw ex;
+        }
+    }
+
+    /**
+     * <p>
+     * Calls several methods of the application endpoint in one JSON-RPC 2.0
+     * batch request. The results are matched to the calls by id.</p>
+     * <p>
+     * If the server answers a batch with an Invalid Request error(-32600) or
+     * with a single response object, batches are turned off for the session
+     * and the calls are made one by one. The same happens for every call when
+     * monsia.disable_batch is set.</p>
+     *
+     * @param methods method names.
+     * @param params parameters of each method, or null. The session meta is
+     * added.
+     * @return in the order of <var>methods</var>, the result of each call, or
+     * the JSONException of a call that returned an error.
+     * @throws IOException on http errors.
+     * @throws JSONException when the response cannot be read.
+     */
+    public Object[] batch(String[] methods, JSONObject[] params) throws IOException, JSONException {
+        JSONObject[] ps = new JSONObject[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            ps[i] = params != null && params[i] != null ? params[i] : new JSONObject();
+            JSONObject meta = new JSONObject();
+            meta.put("client_version", PANDA_CLIENT_VERSION);
+            meta.put("session_id", this.sessionId);
+            ps[i].put("meta", meta);
+        }
+        if (useBatch && !DISABLE_BATCH) {
+            Object[] results = jsonRPCBatch(this.rpcURI, methods, ps);
+            if (results != null) {
+                return results;
+            }
+        }
+        Object[] results = new Object[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            try {
+                results[i] = jsonRPC(this.rpcURI, methods[i], ps[i]);
+            } catch (JSONException ex) {
+                results[i] = ex;
+            }
+        }
+        return results;
+    }
+
+    public CompletableFuture<Object[]> batchAsync(Lane lane, String[] methods, JSONObject[] params) {
+        return submit(lane, () -> batch(methods, params));
+    }
+
+    /**
+     * @return the results, or null when the server does not support batches.
+     */
+    private Object[] jsonRPCBatch(String url, String[] methods, JSONObject[] params) throws JSONException, IOException {
+        long st = System.currentTimeMillis();
+        int[] ids = new int[methods.length];
+        JSONArray request = new JSONArray();
+        for (int i = 0; i < methods.length; i++) {
+            ids[i] = rpcId.getAndIncrement();
+            request.put(new JSONObject(makeJSONRPCRequest(ids[i], methods[i], params[i])));
+        }
+        String reqStr = request.toString();
+        if (DEBUG_JSONRPC) {
+            logger.info("---- JSONRPC batch request");
+            logger.info(reqStr);
+            logger.info("----");
+        }
+        byte[] req = reqStr.getBytes("UTF-8");
+        PostedRequest posted = sendJSONRPC(url, req);
+        HttpURLConnection con = posted.con;
+        ByteArrayOutputStream body;
+        CountingInputStream wire;
+        try {
+            int resCode = con.getResponseCode();
+            if (resCode != 200) {
+                String error = getHTTPErrorBody(con).toString("UTF-8");
+                String resMessage = con.getResponseMessage();
+                pool.release(con);
+                if (isBatchRefused(error)) {
+                    logger.info("server does not support batch requests, http status " + resCode + ", disable batch");
+                    useBatch = false;
+                    return null;
+                }
+                handleHTTPError(resCode, resMessage, error);
+                throw new IOException("http status code " + resCode + " on batch request");
+            }
+            wire = new CountingInputStream(con.getInputStream());
+            body = getHTTPBody(con, wire);
+            pool.release(con);
+        } catch (IOException | RuntimeException ex) {
+            pool.evict(con);
+            throw ex;
+        }
+
+        String name = "batch" + Arrays.toString(methods);
+        long et = System.currentTimeMillis();
+        Metrics.getRPCMetrics("batch").record(et - st, req.length, posted.wireBytes, body.size(), wire.getCount());
+        if (PROFILE) {
+            logger.info(name + ":" + (et - st) + "ms request_bytes:" + req.length + " request_wire_bytes:" + posted.wireBytes + " response_bytes:" + body.size() + " response_wire_bytes:" + wire.getCount());
+        }
+        String resStr = body.toString("UTF-8");
+        if (DEBUG_JSONRPC) {
+            logger.info("---- JSONRPC batch response");
+            logger.info(resStr);
+            logger.info("----");
+        }
+
+        Object response = new JSONTokener(resStr).nextValue();
+        if (response instanceof JSONObject) {
+            logger.info("server does not support batch requests, disable batch");
+            useBatch = false;
+            return null;
+        } else if (!(response instanceof JSONArray)) {
+            throw new JSONException("invalid batch response: " + resStr);
+        }
+        Map<Integer, JSONObject> responses = new HashMap<>();
+        JSONArray array = (JSONArray) response;
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject obj = array.getJSONObject(i);
+            if (obj.has("id") && !obj.isNull("id")) {
+                responses.put(obj.getInt("id"), obj);
+            }
+        }
+        Object[] results = new Object[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            JSONObject obj = responses.get(ids[i]);
+            try {
+                if (obj == null) {
+                    throw new JSONException("no response for " + methods[i] + " id:" + ids[i]);
+                }
+                results[i] = checkJSONRPCResponse(obj, ids[i]);
+            } catch (JSONException ex) {
+                results[i] = ex;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * <p>
+     * Whether the error body of a batch request is an Invalid Request error,
+     * the answer of a server that does not know batches.</p>
+     */
+    private static boolean isBatchRefused(String body) {
+        try {
+            Object error = new JSONTokener(body).nextValue();
+            return error instanceof JSONObject && ((JSONObject) error).has("error")
+                    && ((JSONObject) error).getJSONObject("error").optInt("code") == -32600;
+        } catch (JSONException ex) {
+            return false;
+        }
+    }
+
+    private long postJSONRPC(HttpURLConnection con, byte[] req, boolean gzip) throws IOException {
         con.setDoOutput(true);
         con.setInstanceFollowRedirects(false);
         con.setRequestMethod("POST");
         //          ((HttpsURLConnection) con).setFixedLengthStreamingMode(reqStr.length());
         con.setRequestProperty("Content-Type", "application/json");
         con.setRequestProperty("User-Agent", USER_AGENT);
+        setAcceptEncoding(con);
+        return writeBody(con, req, gzip);
+    }
 
-        try (OutputStreamWriter osw = new OutputStreamWriter(con.getOutputStream(), "UTF-8")) {
-            osw.write(reqStr);
-            osw.flush();
-        }
-
-        int resCode = con.getResponseCode();
-        String resMessage = con.getResponseMessage();
-        String body;
-
+    /**
+     * <p>
+     * Handles an http error response of the application or auth
+     * endpoint.</p>
+     */
+    private void handleHTTPError(int resCode, String resMessage, String body) throws ServerErrorException {
         switch (resCode) {
-            case 200:
-                // do nothing
-                break;
             case 401:
             case 403:
-                body = getHTTPErrorBody(con).toString("UTF-8");
                 if (body.equalsIgnoreCase("NOT PERMITTED CERTIFICATE")) {
                     logger.info("403 not permitted certificate");
-                    JOptionPane.showMessageDialog(null, Messages.getString("Protocol.certificate_error_message"), Messages.getString("Protocol.certificate_error"), JOptionPane.ERROR_MESSAGE);
+                    exitOnError(resCode, Messages.getString("Protocol.certificate_error"), Messages.getString("Protocol.certificate_error_message"));
                 } else {
                     logger.info("" + resCode + " auth error ... " + body);
-                    JOptionPane.showMessageDialog(null, Messages.getString("Protocol.auth_error_message"), Messages.getString("Protocol.auth_error"), JOptionPane.ERROR_MESSAGE);
+                    exitOnError(resCode, Messages.getString("Protocol.auth_error"), Messages.getString("Protocol.auth_error_message"));
                 }
-                System.exit(0);
                 break;
             case 503:
-                body = getHTTPErrorBody(con).toString("UTF-8");
                 if (body.equalsIgnoreCase("GINBEE_MAINTENANCE")) {
                     logger.info("503 server maintenance ... exit");
-                    JOptionPane.showMessageDialog(null, Messages.getString("Protocol.maintenance_error_message"), Messages.getString("Protocol.maintenance_error"), JOptionPane.ERROR_MESSAGE);
-                    System.exit(0);
+                    exitOnError(resCode, Messages.getString("Protocol.maintenance_error"), Messages.getString("Protocol.maintenance_error_message"));
                 } else {
                     showHTTPErrorMessage(resCode, resMessage);
                 }
@@ -346,23 +796,50 @@ public class Protocol {
                 showHTTPErrorMessage(resCode, resMessage);
                 break;
         }
+    }
+
+    private Object readJSONRPC(HttpURLConnection con, int id, String method, long reqBytes, long reqWire, long st, ScreenDataReader reader) throws JSONException, IOException {
+        int resCode = con.getResponseCode();
+        if (resCode != 200) {
+            handleHTTPError(resCode, con.getResponseMessage(), getHTTPErrorBody(con).toString("UTF-8"));
+        }
 
-        ByteArrayOutputStream bytes = getHTTPBody(con);
-        con.disconnect();
+        CountingInputStream wire = new CountingInputStream(con.getInputStream());
+        if (reader != null && STREAM_DECODER) {
+            JSONObject response;
+            CountingInputStream in = new CountingInputStream(decodeBody(con, wire));
+            try (Reader r = new InputStreamReader(in, "UTF-8")) {
+                response = reader.read(r);
+            }
+            pool.release(con);
+
+            long et = System.currentTimeMillis();
+            Metrics.getRPCMetrics(method).record(et - st, reqBytes, reqWire, in.getCount(), wire.getCount());
+            if (PROFILE) {
+                logger.info(method + ":" + (et - st) + "ms request_bytes:" + reqBytes + " request_wire_bytes:" + reqWire + " response_bytes:" + in.getCount() + " response_wire_bytes:" + wire.getCount() + " streamed");
+            }
+            Object result = checkJSONRPCResponse(response, id);
+            reader.commit();
+            return result;
+        }
+
+        ByteArrayOutputStream bytes = getHTTPBody(con, wire);
+        pool.release(con);
 
         long et = System.currentTimeMillis();
-        if (System.getProperty("monsia.do_profile") != null) {
-            logger.info(method + ":" + (et - st) + "ms request_bytes:" + reqStr.length() + " response_bytes:" + bytes.size());
+        Metrics.getRPCMetrics(method).record(et - st, reqBytes, reqWire, bytes.size(), wire.getCount());
+        if (PROFILE) {
+            logger.info(method + ":" + (et - st) + "ms request_bytes:" + reqBytes + " request_wire_bytes:" + reqWire + " response_bytes:" + bytes.size() + " response_wire_bytes:" + wire.getCount());
         }
 
         String resStr = bytes.toString("UTF-8");
 
-        if (System.getProperty("monsia.debug.jsonrpc") != null) {
+        if (DEBUG_JSONRPC) {
             logger.info("---- JSONRPC response");
             logger.info(resStr);
             logger.info("----");
         }
-        Object result = checkJSONRPCResponse(resStr);
+        Object result = checkJSONRPCResponse(resStr, id);
         return result;
     }
 
@@ -372,6 +849,11 @@ public class Protocol {
         this.protocolVersion = result.getString("protocol_version");
         this.applicationVersion = result.getString("application_version");
         this.serverType = result.getString("server_type");
+        if (result.has("accept_encoding") && useCompression()
+                && result.get("accept_encoding").toString().toLowerCase().contains("gzip")) {
+            logger.info("server accepts gzip, compress requests");
+            compressRequest = true;
+        }
 
         logger.debug("protocol_version:" + this.protocolVersion);
         logger.debug("application_version:" + this.applicationVersion);
@@ -420,13 +902,21 @@ public class Protocol {
         logger.info("restURIRoot:" + this.restURIRoot);
         logger.info("usePushClient:" + this.usePushClient);
         logger.info("pusherURI:" + this.pusherURI);
+
+        if (BlobCache.isEnabled()) {
+            this.blobCache = new BlobCache(this.sessionId);
+        }
     }
 
     public String getServerType() {
         return serverType;
     }
 
-    public synchronized void endSession() throws IOException, JSONException {
+    public String getApplicationVersion() {
+        return applicationVersion;
+    }
+
+    public void endSession() throws IOException, JSONException {
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
         meta.put("client_version", PANDA_CLIENT_VERSION);
@@ -434,9 +924,36 @@ public class Protocol {
         params.put("meta", meta);
 
         JSONObject result = (JSONObject) jsonRPC(this.rpcURI, "end_session", params);
+        if (PROFILE) {
+            Metrics.getRPCMetrics().forEach((String method, RPCMetrics metrics) -> {
+                logger.info(method + " " + metrics);
+            });
+        }
+        if (blobCache != null) {
+            if (PROFILE) {
+                logger.info(blobCache);
+            }
+            blobCache.clear();
+        }
     }
 
-    public synchronized JSONObject getWindow() throws IOException, JSONException {
+    /**
+     * @return the BLOB cache of the session, or null when it is disabled.
+     */
+    public BlobCache getBlobCache() {
+        return blobCache;
+    }
+
+    public JSONObject getWindow() throws IOException, JSONException {
+        return getWindow(null);
+    }
+
+    /**
+     * <p>
+     * Calls get_window, reading the response with <var>reader</var> when the
+     * streaming reader is enabled. See ScreenDataReader.</p>
+     */
+    JSONObject getWindow(ScreenDataReader reader) throws IOException, JSONException {
 
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
@@ -444,11 +961,11 @@ public class Protocol {
         meta.put("session_id", this.sessionId);
         params.put("meta", meta);
 
-        return (JSONObject) jsonRPC(this.rpcURI, "get_window", params);
+        return (JSONObject) jsonRPC(this.rpcURI, "get_window", params, reader);
 
     }
 
-    public synchronized String getScreenDefine(String wname) throws IOException, JSONException {
+    public String getScreenDefine(String wname) throws IOException, JSONException {
 
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
@@ -462,16 +979,25 @@ public class Protocol {
 
     }
 
-    public synchronized JSONObject sendEvent(JSONObject params) throws IOException, JSONException {
+    public JSONObject sendEvent(JSONObject params) throws IOException, JSONException {
+        return sendEvent(params, null);
+    }
+
+    /**
+     * <p>
+     * Calls send_event, reading the response with <var>reader</var> when the
+     * streaming reader is enabled. See ScreenDataReader.</p>
+     */
+    JSONObject sendEvent(JSONObject params, ScreenDataReader reader) throws IOException, JSONException {
         JSONObject meta = new JSONObject();
         meta.put("client_version", PANDA_CLIENT_VERSION);
         meta.put("session_id", this.sessionId);
         params.put("meta", meta);
-        return (JSONObject) jsonRPC(this.rpcURI, "send_event", params);
+        return (JSONObject) jsonRPC(this.rpcURI, "send_event", params, reader);
 
     }
 
-    public synchronized JSONObject getMessage() throws IOException, JSONException {
+    public JSONObject getMessage() throws IOException, JSONException {
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
         meta.put("client_version", PANDA_CLIENT_VERSION);
@@ -481,7 +1007,7 @@ public class Protocol {
         return (JSONObject) jsonRPC(this.rpcURI, "get_message", params);
     }
 
-    public synchronized JSONArray listDownloads() throws IOException, JSONException {
+    public JSONArray listDownloads() throws IOException, JSONException {
         JSONObject params = new JSONObject();
         JSONObject meta = new JSONObject();
         meta.put("client_version", PANDA_CLIENT_VERSION);
@@ -491,73 +1017,533 @@ public class Protocol {
         return (JSONArray) jsonRPC(this.rpcURI, "list_downloads", params);
     }
 
-    public synchronized int getBLOB(String oid, OutputStream out) throws IOException {
-        if (oid.equals("0")) {
-            // empty object id
-            out.close();
-            return 404;
+    private HttpURLConnection openBLOB(String oid) throws IOException {
+        URL url = new URL(this.restURIRoot + "sessions/" + this.sessionId + "/blob/" + oid);
+        HttpURLConnection con = pool.open(url, null);
+        con.setInstanceFollowRedirects(false);
+        con.setRequestMethod("GET");
+        con.setRequestProperty("User-Agent", USER_AGENT);
+        setAcceptEncoding(con);
+        return con;
+    }
+
+    private void logTransfer(String method, Transfer transfer, long wireBytes) {
+        if (method.equals("post_blob")) {
+            Metrics.getRPCMetrics(method).record(transfer.getElapsedTime(), transfer.getBytes(), wireBytes, 0, 0);
+        } else {
+            Metrics.getRPCMetrics(method).record(transfer.getElapsedTime(), 0, 0, transfer.getBytes(), wireBytes);
+        }
+        if (PROFILE) {
+            logger.info(transfer + " wire_bytes:" + wireBytes);
         }
+    }
 
-        URL url = new URL(this.restURIRoot + "sessions/" + this.sessionId + "/blob/" + oid);
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+    private static class CachedBLOB {
+
+        private final int code;
+        private final BlobCache.Entry entry;
 
-        String protocol = url.getProtocol();
-        switch (protocol) {
-            case "https":
-                if (sslSocketFactory != null) {
-                    ((HttpsURLConnection) con).setSSLSocketFactory(sslSocketFactory);
+        private CachedBLOB(int code, BlobCache.Entry entry) {
+            this.code = code;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * <p>
+     * Gets a BLOB through the BLOB cache. A fresh entry is used as is, a
+     * stale one is revalidated with If-None-Match/If-Modified-Since, and
+     * otherwise the BLOB is downloaded into <var>download</var> and stored
+     * when the response allows it. When the entry of the result is null the
+     * body is left in <var>download</var>, otherwise the entry is pinned and
+     * must be released.</p>
+     */
+    private CachedBLOB getCachedBLOB(String oid, File download) throws IOException {
+        BlobCache.Entry entry = blobCache.get(oid);
+        if (entry != null && entry.isFresh()) {
+            return new CachedBLOB(200, entry);
+        }
+        CachedBLOB blob;
+        try {
+            blob = fetchCachedBLOB(oid, download, entry);
+        } catch (IOException | RuntimeException ex) {
+            if (entry != null) {
+                blobCache.release(entry);
+            }
+            throw ex;
+        }
+        if (entry != null && blob.entry != entry) {
+            // replaced by a new download
+            blobCache.release(entry);
+        }
+        return blob;
+    }
+
+    private CachedBLOB fetchCachedBLOB(String oid, File download, BlobCache.Entry entry) throws IOException {
+        PartialBLOB partial = PartialBLOB.take(oid);
+        Transfer transfer = new Transfer("get_blob " + oid);
+        HttpURLConnection con;
+        int code;
+        for (int retry = 0;; retry++) {
+            con = openBLOB(oid, partial);
+            if (entry != null) {
+                if (entry.getETag() != null) {
+                    con.setRequestProperty("If-None-Match", entry.getETag());
                 }
+                if (entry.getLastModified() != 0) {
+                    con.setIfModifiedSince(entry.getLastModified());
+                }
+            }
+            try {
+                code = con.getResponseCode();
                 break;
-            case "http":
-                break;
-            default:
-                throw new IOException("bad protocol");
+            } catch (IOException ex) {
+                pool.evict(con);
+                // a server that never answers is retried once
+                if (retry > 0) {
+                    if (partial != null) {
+                        PartialBLOB.keep(oid, partial.getFile(), partial.getLength(), partial.getETag(), partial.getLastModified());
+                    }
+                    throw ex;
+                }
+                transfer.retried();
+                logger.info("retry blob " + oid + ": " + ex.getMessage());
+            }
+        }
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+            blobCache.revalidated(entry, con);
+            pool.release(con);
+            if (partial != null) {
+                partial.getFile().delete();
+            }
+            return new CachedBLOB(200, entry);
+        }
+        blobCache.miss();
+        long wireBytes = readBLOB(oid, con, partial, download, transfer);
+        logTransfer("get_blob", transfer, wireBytes);
+        if (code == HttpURLConnection.HTTP_PARTIAL && partial != null) {
+            // completed from the partial file
+            code = HttpURLConnection.HTTP_OK;
+        }
+        if (code == HttpURLConnection.HTTP_OK && BlobCache.isCacheable(con)) {
+            return new CachedBLOB(code, blobCache.put(oid, download, con));
+        }
+        return new CachedBLOB(code, null);
+    }
+
+    private static int getMaxRetries() {
+        if (System.getProperty("monsia.blob.max_retries") != null) {
+            return Math.max(0, Integer.parseInt(System.getProperty("monsia.blob.max_retries")));
         }
+        return DEFAULT_BLOB_MAX_RETRIES;
+    }
 
-        con.setInstanceFollowRedirects(false);
-        con.setRequestMethod("GET");
-        con.setRequestProperty("User-Agent", USER_AGENT);
+    /**
+     * <p>
+     * Opens a GET of a BLOB. When <var>partial</var> is not null, the rest of
+     * it is requested with Range and If-Range.</p>
+     */
+    private HttpURLConnection openBLOB(String oid, PartialBLOB partial) throws IOException {
+        HttpURLConnection con = openBLOB(oid);
+        if (partial != null) {
+            setRange(con, partial.getOffset(), partial.getETag(), partial.getLastModified());
+        }
+        return con;
+    }
 
-        BufferedInputStream bis = new BufferedInputStream(con.getInputStream());
-        int length;
-        while ((length = bis.read()) != -1) {
-            out.write(length);
+    private static void setRange(HttpURLConnection con, long offset, String etag, long lastModified) {
+        // the partial file holds decoded bytes
+        con.setRequestProperty("Accept-Encoding", "identity");
+        con.setRequestProperty("Range", "bytes=" + offset + "-");
+        if (etag != null && !etag.startsWith("W/")) {
+            con.setRequestProperty("If-Range", etag);
+        } else if (lastModified != 0) {
+            con.setRequestProperty("If-Range", formatHTTPDate(lastModified));
         }
-        out.close();
-        con.disconnect();
+    }
 
-        return con.getResponseCode();
+    /**
+     * <p>
+     * Reads the BLOB body of <var>con</var> into <var>file</var>. When the
+     * transfer breaks, the rest is requested with Range and If-Range and
+     * appended to the partial file, up to monsia.blob.max_retries
+     * times(default 3). A request that gets no response at all is retried once.
+     * A 206 is accepted only if its Content-Range starts at the end of the
+     * partial file and agrees with the known length and ETag; a 200 starts
+     * the file over. The decoded length is checked against Content-Length or
+     * Content-Range when it is known. An encoded body is checked against its
+     * Content-Length, and its decoded bytes are not kept when it breaks.</p>
+     * <p>
+     * When the retries run out, the partial file is kept as a PartialBLOB, and
+     * a later call given it through <var>partial</var> resumes from its
+     * end.</p>
+     *
+     * @param oid object id.
+     * @param con the connection of the first request, made by
+     * openBLOB(oid, partial). released or evicted.
+     * @param partial the partial download <var>con</var> resumes, or null.
+     * @param file destination file. replaced.
+     * @param transfer records the bytes and the retries.
+     * @return bytes read from the wire.
+     * @throws IOException on http errors, or when the retries run out.
+     */
+    private long readBLOB(String oid, HttpURLConnection con, PartialBLOB partial, File file, Transfer transfer) throws IOException {
+        File work = partial != null ? partial.getFile() : PartialBLOB.createWorkFile();
+        long expected = partial != null ? partial.getLength() : -1;
+        String etag = partial != null ? partial.getETag() : null;
+        long lastModified = partial != null ? partial.getLastModified() : 0;
+        long wireBytes = 0;
+        int maxRetries = getMaxRetries();
+        boolean answered = false;
+        boolean done = false;
+        try {
+            try (FileChannel channel = FileChannel.open(work.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                for (int retry = 0;; retry++) {
+                    CountingInputStream wire = null;
+                    // decoded bytes of a broken encoded body are dropped
+                    long encodedStart = -1;
+                    // a server that never answers is retried once
+                    boolean retryable = answered || retry == 0;
+                    try {
+                        long offset = channel.size();
+                        if (con == null) {
+                            con = openBLOB(oid);
+                            if (offset > 0) {
+                                setRange(con, offset, etag, lastModified);
+                            }
+                        }
+                        int code = con.getResponseCode();
+                        answered = true;
+                        retryable = true;
+                        if (code == HttpURLConnection.HTTP_PARTIAL && offset > 0) {
+                            long total = checkContentRange(con, offset, expected, etag);
+                            if (expected < 0) {
+                                expected = total;
+                            }
+                        } else if (code == HttpURLConnection.HTTP_OK || (offset == 0 && code < 400)) {
+                            if (offset > 0) {
+                                logger.info("blob " + oid + " is not resumable, start over");
+                                offset = 0;
+                            }
+                            expected = isIdentity(con) ? con.getContentLengthLong() : -1;
+                            etag = con.getHeaderField("ETag");
+                            lastModified = con.getLastModified();
+                        } else if (code == 416) {
+                            channel.truncate(0);
+                            throw new IOException("range not satisfiable: " + offset);
+                        } else {
+                            retryable = false;
+                            channel.truncate(0);
+                            // throws the usual FileNotFoundException/IOException
+                            con.getInputStream().close();
+                            throw new IOException("http status code " + code + " on resuming blob " + oid);
+                        }
+                        channel.truncate(offset);
+                        channel.position(offset);
+                        if (!isIdentity(con)) {
+                            encodedStart = offset;
+                        }
+                        wire = new CountingInputStream(con.getInputStream());
+                        try (InputStream in = decodeBody(con, wire)) {
+                            transfer.copy(in, channel);
+                        }
+                        long wireLength = con.getContentLengthLong();
+                        if (encodedStart >= 0 && wireLength >= 0 && wire.getCount() != wireLength) {
+                            throw new IOException("blob " + oid + " encoded length mismatch: " + wire.getCount() + "/" + wireLength);
+                        }
+                        wireBytes += wire.getCount();
+                        wire = null;
+                        pool.release(con);
+                        con = null;
+                        if (expected >= 0 && channel.size() != expected) {
+                            if (channel.size() > expected) {
+                                channel.truncate(0);
+                            }
+                            // a short body is resumed
+                            throw new IOException("blob " + oid + " length mismatch: " + channel.size() + "/" + expected);
+                        }
+                        done = true;
+                        return wireBytes;
+                    } catch (IOException ex) {
+                        if (wire != null) {
+                            wireBytes += wire.getCount();
+                        }
+                        if (con != null) {
+                            pool.evict(con);
+                            con = null;
+                        }
+                        if (encodedStart >= 0) {
+                            channel.truncate(encodedStart);
+                        }
+                        if (!retryable || retry >= maxRetries) {
+                            Metrics.getRPCMetrics("get_blob").error();
+                            throw ex;
+                        }
+                        transfer.retried();
+                        logger.info("retry blob " + oid + " from " + channel.size() + ": " + ex.getMessage());
+                        try {
+                            Thread.sleep(RETRY_INTERVAL * (retry + 1));
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            throw ex;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (done) {
+                Files.move(work.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                PartialBLOB.keep(oid, work, expected, etag, lastModified);
+            }
+        }
     }
 
-    public synchronized String postBLOB(byte[] in) throws IOException {
-        URL url = new URL(this.restURIRoot + "sessions/" + this.sessionId + "/blob/");
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+    private static boolean isIdentity(HttpURLConnection con) {
+        String encoding = con.getContentEncoding();
+        return encoding == null || encoding.equalsIgnoreCase("identity");
+    }
+
+    /**
+     * <p>
+     * Checks the Content-Range of a 206 response against the partial
+     * file.</p>
+     *
+     * @return the complete length, or -1 if unknown.
+     */
+    private static long checkContentRange(HttpURLConnection con, long offset, long expected, String etag) throws IOException {
+        String range = con.getHeaderField("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) {
+            throw new IOException("invalid Content-Range: " + range);
+        }
+        long start;
+        long total;
+        try {
+            int dash = range.indexOf('-');
+            int slash = range.indexOf('/');
+            start = Long.parseLong(range.substring("bytes ".length(), dash).trim());
+            String t = range.substring(slash + 1).trim();
+            total = t.equals("*") ? -1 : Long.parseLong(t);
+        } catch (IndexOutOfBoundsException | NumberFormatException ex) {
+            throw new IOException("invalid Content-Range: " + range);
+        }
+        if (start != offset) {
+            throw new IOException("Content-Range " + range + " does not start at " + offset);
+        }
+        if (expected >= 0 && total >= 0 && total != expected) {
+            throw new IOException("Content-Range " + range + " does not match length " + expected);
+        }
+        String newETag = con.getHeaderField("ETag");
+        if (etag != null && newETag != null && !etag.equals(newETag)) {
+            throw new IOException("ETag changed: " + etag + " " + newETag);
+        }
+        return total;
+    }
+
+    private static String formatHTTPDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
 
-        String protocol = url.getProtocol();
-        switch (protocol) {
-            case "https":
-                if (sslSocketFactory != null) {
-                    ((HttpsURLConnection) con).setSSLSocketFactory(sslSocketFactory);
+    public int getBLOB(String oid, OutputStream out) throws IOException {
+        if (oid.equals("0")) {
+            // empty object id
+            out.close();
+            return 404;
+        }
+        if (blobCache != null) {
+            File download = blobCache.createDownloadFile();
+            CachedBLOB blob = null;
+            try {
+                blob = getCachedBLOB(oid, download);
+                if (blob.entry != null) {
+                    blobCache.copy(blob.entry, out);
+                } else {
+                    Files.copy(download.toPath(), out);
                 }
-                break;
-            case "http":
-                break;
-            default:
-                throw new IOException("bad protocol");
+                return blob.code;
+            } finally {
+                if (blob != null && blob.entry != null) {
+                    blobCache.release(blob.entry);
+                }
+                download.delete();
+                out.close();
+            }
+        }
+        Transfer transfer = new Transfer("get_blob " + oid);
+        HttpURLConnection con = openBLOB(oid);
+        try {
+            CountingInputStream wire = new CountingInputStream(con.getInputStream());
+            try (InputStream in = decodeBody(con, wire)) {
+                transfer.copy(in, out);
+            }
+            out.close();
+            int code = con.getResponseCode();
+            pool.release(con);
+            logTransfer("get_blob", transfer, wire.getCount());
+            return code;
+        } catch (IOException ex) {
+            Metrics.getRPCMetrics("get_blob").error();
+            throw ex;
+        } finally {
+            // does nothing once released
+            pool.evict(con);
         }
+    }
 
-        con.setInstanceFollowRedirects(false);
-        con.setRequestMethod("POST");
-        con.setDoOutput(true);
-        //((HttpsURLConnection) con.setFixedLengthStreamingMode(in.length);
-        con.setRequestProperty("Content-Type", "application/octet-stream");
-        con.setRequestProperty("User-Agent", USER_AGENT);
-        try (OutputStream os = con.getOutputStream()) {
-            os.write(in);
-            os.flush();
+    /**
+     * <p>
+     * Downloads a BLOB into <var>file</var>, writing it through a
+     * FileChannel.</p>
+     *
+     * @param oid object id.
+     * @param file destination file. replaced if it exists.
+     * @return http status code.
+     * @throws IOException on http or file errors.
+     */
+    public int getBLOB(String oid, File file) throws IOException {
+        if (oid.equals("0")) {
+            // empty object id
+            return 404;
+        }
+        if (blobCache != null) {
+            File download = blobCache.createDownloadFile();
+            CachedBLOB blob = null;
+            try {
+                blob = getCachedBLOB(oid, download);
+                if (blob.entry != null) {
+                    blobCache.copy(blob.entry, file);
+                } else {
+                    Files.move(download.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                return blob.code;
+            } finally {
+                if (blob != null && blob.entry != null) {
+                    blobCache.release(blob.entry);
+                }
+                download.delete();
+            }
+        }
+        Transfer transfer = new Transfer("get_blob " + oid);
+        PartialBLOB partial = PartialBLOB.take(oid);
+        HttpURLConnection con = openBLOB(oid, partial);
+        long wireBytes = readBLOB(oid, con, partial, file, transfer);
+        logTransfer("get_blob", transfer, wireBytes);
+        int code = con.getResponseCode();
+        if (code == HttpURLConnection.HTTP_PARTIAL && partial != null) {
+            // completed from the partial file
+            code = HttpURLConnection.HTTP_OK;
+        }
+        return code;
+    }
+
+    public String postBLOB(byte[] in) throws IOException {
+        long st = System.currentTimeMillis();
+        boolean gzip = compressRequest(in);
+        HttpURLConnection con = openPostBLOB(in, gzip);
+        try {
+            if (gzip && isCompressionRefused(con.getResponseCode())) {
+                logger.info("server does not accept compressed blobs: " + con.getResponseCode());
+                compressRequest = false;
+                pool.release(con);
+                con = openPostBLOB(in, false);
+            }
+            String oid = con.getHeaderField("x-blob-id");
+            pool.release(con);
+            Metrics.getRPCMetrics("post_blob").record(System.currentTimeMillis() - st, in.length, 0, 0, 0);
+            return oid;
+        } catch (IOException ex) {
+            Metrics.getRPCMetrics("post_blob").error();
+            throw ex;
+        } finally {
+            // does nothing once released
+            pool.evict(con);
+        }
+    }
+
+    /**
+     * <p>
+     * Uploads the content of <var>path</var> as a BLOB. The file is streamed
+     * to the server and never held in memory.</p>
+     *
+     * @param path the file to upload.
+     * @param listener receives the progress, or null.
+     * @return object id.
+     * @throws IOException on http or file errors.
+     */
+    public String postBLOB(Path path, Transfer.Listener listener) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return postBLOB(in, Files.size(path), listener);
+        }
+    }
+
+    /**
+     * <p>
+     * Uploads <var>in</var> as a BLOB. The body is sent in fixed-length
+     * streaming mode when <var>length</var> is known, otherwise in chunked
+     * mode, so HttpURLConnection does not buffer it. Streamed bodies are not
+     * compressed since they cannot be sent again after a 415.</p>
+     *
+     * @param in the content. not closed.
+     * @param length the length of the content, or -1 if unknown.
+     * @param listener receives the progress, or null.
+     * @return object id.
+     * @throws IOException on http or read errors.
+     */
+    public String postBLOB(InputStream in, long length, Transfer.Listener listener) throws IOException {
+        URL url = new URL(this.restURIRoot + "sessions/" + this.sessionId + "/blob/");
+        Transfer transfer = new Transfer("post_blob");
+        transfer.setListener(listener, length);
+        HttpURLConnection con = pool.open(url, null);
+        try {
+            con.setInstanceFollowRedirects(false);
+            con.setRequestMethod("POST");
+            con.setDoOutput(true);
+            if (length >= 0) {
+                con.setFixedLengthStreamingMode(length);
+            } else {
+                con.setChunkedStreamingMode(BUFFER_SIZE);
+            }
+            con.setRequestProperty("Content-Type", "application/octet-stream");
+            con.setRequestProperty("User-Agent", USER_AGENT);
+            try (OutputStream out = con.getOutputStream()) {
+                transfer.copy(in, out);
+            }
+            String oid = con.getHeaderField("x-blob-id");
+            pool.release(con);
+            logTransfer("post_blob", transfer, transfer.getBytes());
+            return oid;
+        } catch (IOException ex) {
+            Metrics.getRPCMetrics("post_blob").error();
+            throw ex;
+        } finally {
+            // does nothing once released
+            pool.evict(con);
+        }
+    }
+
+    private HttpURLConnection openPostBLOB(byte[] in, boolean gzip) throws IOException {
+        URL url = new URL(this.restURIRoot + "sessions/" + this.sessionId + "/blob/");
+        HttpURLConnection con = pool.open(url, null);
+        try {
+            con.setInstanceFollowRedirects(false);
+            con.setRequestMethod("POST");
+            con.setDoOutput(true);
+            if (gzip) {
+                con.setChunkedStreamingMode(BUFFER_SIZE);
+            } else {
+                con.setFixedLengthStreamingMode(in.length);
+            }
+            con.setRequestProperty("Content-Type", "application/octet-stream");
+            con.setRequestProperty("User-Agent", USER_AGENT);
+            writeBody(con, in, gzip);
+            return con;
+        } catch (IOException | RuntimeException ex) {
+            pool.evict(con);
+            throw ex;
         }
-        con.disconnect();
-        return con.getHeaderField("x-blob-id");
     }
 
     public String getSessionId() {
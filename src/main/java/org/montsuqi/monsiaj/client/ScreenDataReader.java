@@ -0,0 +1,308 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * <p>
+ * A streaming reader of get_window/send_event responses.</p>
+ * <p>
+ * The response is read token by token from the connection. When a
+ * windows[].screen_data arrives for a window that already has a screen
+ * template, its values are collected for the slots of the ScreenSchema of
+ * the window as they are read, and no tree is built for it. Such window
+ * entries are returned without screen_data. The screen_data of a window seen
+ * for the first time, or one that arrives before the window name, is returned
+ * as is and left to Client.updateScreen.</p>
+ * <p>
+ * The collected values are merged into the templates by commit(), which is
+ * called once the response has been read to the end and is known not to be
+ * an error, so that a broken or failed response leaves the templates as
+ * they were.</p>
+ */
+class ScreenDataReader {
+
+    private interface Member {
+
+        void read(JSONObject obj, String key) throws JSONException;
+    }
+
+    // the values read for the slots of a template
+    private static class Update {
+
+        private final ScreenSchema schema;
+        private int[] slots;
+        private Object[] values;
+        private int size;
+
+        Update(ScreenSchema schema) {
+            this.schema = schema;
+            this.slots = new int[64];
+            this.values = new Object[64];
+            this.size = 0;
+        }
+
+        void add(int slot, Object value) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            slots[size] = slot;
+            values[size] = value;
+            size++;
+        }
+
+        void apply() throws JSONException {
+            schema.begin();
+            for (int i = 0; i < size; i++) {
+                schema.set(slots[i], values[i]);
+            }
+            schema.end();
+        }
+    }
+
+    private final UIControl uiControl;
+    private final List<Update> updates;
+    private JSONTokener x;
+
+    ScreenDataReader(UIControl uiControl) {
+        this.uiControl = uiControl;
+        this.updates = new ArrayList<>();
+    }
+
+    /**
+     * <p>
+     * Reads a JSON-RPC response object.</p>
+     *
+     * @param reader the response body.
+     * @return the response with screen_data of known windows removed.
+     * @throws JSONException on syntax errors.
+     */
+    JSONObject read(Reader reader) throws JSONException {
+        updates.clear();
+        x = new JSONTokener(reader);
+        try {
+            return readObject((obj, key) -> {
+                if (key.equals("result")) {
+                    obj.put(key, readResult());
+                } else {
+                    obj.put(key, x.nextValue());
+                }
+            });
+        } catch (JSONException ex) {
+            updates.clear();
+            throw ex;
+        }
+    }
+
+    private Object readResult() throws JSONException {
+        if (peek() != '{') {
+            return x.nextValue();
+        }
+        return readObject((obj, key) -> {
+            if (key.equals("window_data") && peek() == '{') {
+                obj.put(key, readWindowData());
+            } else {
+                obj.put(key, x.nextValue());
+            }
+        });
+    }
+
+    private JSONObject readWindowData() throws JSONException {
+        return readObject((obj, key) -> {
+            if (key.equals("windows") && peek() == '[') {
+                obj.put(key, readWindows());
+            } else {
+                obj.put(key, x.nextValue());
+            }
+        });
+    }
+
+    private JSONArray readWindows() throws JSONException {
+        JSONArray windows = new JSONArray();
+        x.nextClean();
+        if (x.nextClean() == ']') {
+            return windows;
+        }
+        x.back();
+        do {
+            if (peek() == '{') {
+                windows.put(readWindow());
+            } else {
+                windows.put(x.nextValue());
+            }
+        } while (more(']'));
+        return windows;
+    }
+
+    private JSONObject readWindow() throws JSONException {
+        return readObject((obj, key) -> {
+            if (key.equals("screen_data") && obj.has("window")) {
+                ScreenSchema schema = uiControl.getScreenSchema(obj.getString("window"));
+                if (schema != null) {
+                    Update update = new Update(schema);
+                    merge(update, schema.root());
+                    updates.add(update);
+                    return;
+                }
+            }
+            obj.put(key, x.nextValue());
+        });
+    }
+
+    /**
+     * <p>
+     * Merges the screen_data of the windows of the last read() into their
+     * templates.</p>
+     */
+    void commit() throws JSONException {
+        for (Update update : updates) {
+            update.apply();
+        }
+        updates.clear();
+    }
+
+    private void merge(final Update update, final int slot) throws JSONException {
+        final ScreenSchema schema = update.schema;
+        char c = peek();
+        if (schema.isObject(slot)) {
+            if (c != '{') {
+                skipValue();
+                return;
+            }
+            readObject((obj, key) -> {
+                int child = schema.member(slot, key);
+                if (child < 0) {
+                    skipValue();
+                } else {
+                    merge(update, child);
+                }
+            });
+        } else if (schema.isArray(slot)) {
+            if (c != '[') {
+                skipValue();
+                return;
+            }
+            int i = 0;
+            x.nextClean();
+            if (x.nextClean() == ']') {
+                return;
+            }
+            x.back();
+            do {
+                int child = schema.element(slot, i++);
+                if (child < 0) {
+                    skipValue();
+                } else {
+                    merge(update, child);
+                }
+            } while (more(']'));
+        } else if (c == '{' || c == '[') {
+            skipValue();
+        } else {
+            update.add(slot, x.nextValue());
+        }
+    }
+
+    private JSONObject readObject(Member member) throws JSONException {
+        JSONObject obj = new JSONObject();
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        if (x.nextClean() == '}') {
+            return obj;
+        }
+        x.back();
+        do {
+            String key = x.nextValue().toString();
+            if (x.nextClean() != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+            member.read(obj, key);
+        } while (more('}'));
+        return obj;
+    }
+
+    private void skipValue() throws JSONException {
+        char c = x.nextClean();
+        switch (c) {
+            case '"':
+            case '\'':
+                x.nextString(c);
+                break;
+            case '{':
+                if (x.nextClean() != '}') {
+                    x.back();
+                    do {
+                        x.nextValue();
+                        if (x.nextClean() != ':') {
+                            throw x.syntaxError("Expected a ':' after a key");
+                        }
+                        skipValue();
+                    } while (more('}'));
+                }
+                break;
+            case '[':
+                if (x.nextClean() != ']') {
+                    x.back();
+                    do {
+                        skipValue();
+                    } while (more(']'));
+                }
+                break;
+            default:
+                x.back();
+                x.nextValue();
+                break;
+        }
+    }
+
+    private boolean more(char close) throws JSONException {
+        char c = x.nextClean();
+        if (c == ',') {
+            if (x.nextClean() == close) {
+                return false;
+            }
+            x.back();
+            return true;
+        }
+        if (c == close) {
+            return false;
+        }
+        throw x.syntaxError("Expected a ',' or '" + close + "'");
+    }
+
+    private char peek() throws JSONException {
+        char c = x.nextClean();
+        x.back();
+        return c;
+    }
+}
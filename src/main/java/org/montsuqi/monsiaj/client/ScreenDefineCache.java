@@ -0,0 +1,234 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.montsuqi.monsiaj.util.TempFile;
+
+/**
+ * <p>
+ * A disk cache of screen definitions(get_screen_define).</p>
+ * <p>
+ * Definitions are stored under ~/.monsiaj/screen_cache/&lt;server&gt;/
+ * &lt;application version&gt;/, one file per window with a CRC32 of the
+ * content. The InterfaceSnapshot of a window is kept next to its
+ * definition. Screen definitions only change with the application version, so
+ * the directories of other versions of the same server that have not been
+ * opened for 30 days are removed when the cache is opened. Another client on
+ * another version may still be using the newer ones. A file that cannot be
+ * read or whose checksum does not match is treated as a miss and
+ * removed.</p>
+ * <p>
+ * Files are written to a temporary file and moved into place, so that
+ * clients sharing the cache never read a file being written.</p>
+ */
+class ScreenDefineCache {
+
+    private static final Logger logger = LogManager.getLogger(ScreenDefineCache.class);
+    private static final String MAGIC = "monsiaj-screen-define-1";
+    private static final String DEFINE_SUFFIX = ".def";
+    private static final String SNAPSHOT_SUFFIX = ".snp";
+    private static final File CACHE_ROOT = new File(new File(new File(System.getProperty("user.home")), ".monsiaj"), "screen_cache");
+    private static final long EXPIRE_TIME = 30L * 24 * 60 * 60 * 1000;
+
+    private final File dir;
+    private final String version;
+
+    /**
+     * <p>
+     * Opens the cache of <var>server</var> for <var>version</var>.</p>
+     *
+     * @param server the auth URI of the server.
+     * @param version application_version of get_server_info.
+     */
+    ScreenDefineCache(String server, String version) {
+        this.version = version;
+        File serverDir = new File(CACHE_ROOT, digest(server));
+        this.dir = new File(serverDir, escape(version));
+        long now = System.currentTimeMillis();
+        File[] old = serverDir.listFiles();
+        if (old != null) {
+            for (File f : old) {
+                if (!f.equals(dir) && now - f.lastModified() > EXPIRE_TIME) {
+                    logger.info("remove screen define cache " + f);
+                    TempFile.deleteAll(f);
+                }
+            }
+        }
+        dir.mkdirs();
+        // marks the version as in use
+        dir.setLastModified(now);
+    }
+
+    static boolean isEnabled(String version) {
+        return System.getProperty("monsia.disable_screen_cache") == null
+                && version != null && !version.isEmpty();
+    }
+
+    /**
+     * <p>
+     * Returns the cached definition of <var>window</var>, or null.</p>
+     */
+    String get(String window) {
+        byte[] data = read(window, DEFINE_SUFFIX);
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <p>
+     * Stores the definition of <var>window</var>. Errors are only
+     * logged.</p>
+     */
+    void put(String window, String define) {
+        write(window, DEFINE_SUFFIX, define.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * <p>
+     * Returns the cached InterfaceSnapshot of <var>window</var>, or
+     * null.</p>
+     */
+    byte[] getSnapshot(String window) {
+        return read(window, SNAPSHOT_SUFFIX);
+    }
+
+    void putSnapshot(String window, byte[] snapshot) {
+        write(window, SNAPSHOT_SUFFIX, snapshot);
+    }
+
+    void removeSnapshot(String window) {
+        getFile(window, SNAPSHOT_SUFFIX).delete();
+    }
+
+    private byte[] read(String window, String suffix) {
+        File file = getFile(window, suffix);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!in.readUTF().equals(MAGIC) || !in.readUTF().equals(version) || !in.readUTF().equals(window)) {
+                throw new IOException("header mismatch");
+            }
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                throw new IOException("invalid length " + length);
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            long checksum = in.readLong();
+            if (checksum != crc(data)) {
+                throw new IOException("checksum mismatch");
+            }
+            return data;
+        } catch (IOException ex) {
+            logger.warn("broken screen define cache " + file + " " + ex.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private void write(String window, String suffix, byte[] data) {
+        File file = getFile(window, suffix);
+        File tmp = null;
+        try {
+            tmp = Files.createTempFile(dir.toPath(), "write_", ".tmp").toFile();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeUTF(MAGIC);
+                out.writeUTF(version);
+                out.writeUTF(window);
+                out.writeInt(data.length);
+                out.write(data);
+                out.writeLong(crc(data));
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            logger.warn("cannot write screen define cache " + file + " " + ex.getMessage());
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private File getFile(String window, String suffix) {
+        return new File(dir, escape(window) + suffix);
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    /**
+     * <p>
+     * Makes a file name of <var>s</var>. Characters other than
+     * [A-Za-z0-9_.-] are percent-encoded in UTF-8, so different names never
+     * share a file.</p>
+     */
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '.' || c == '-') {
+                sb.append(c);
+            } else {
+                sb.append(String.format("%%%02X", b & 0xff));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String digest(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest(s.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            return escape(s);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONException;
+import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.monsia.InterfaceSnapshot;
+import org.montsuqi.monsiaj.monsia.WidgetInfo;
+
+/**
+ * <p>
+ * Loads the Interfaces of windows.</p>
+ * <p>
+ * Screen definitions are fetched and parsed into WidgetInfo trees on a
+ * bounded pool of monsia.screen_loader_threads threads(default 4), so that
+ * the windows of one transition are loaded in parallel. The pool is shared
+ * by all ScreenLoaders, so reconnecting does not add threads. Only building
+ * the Swing widgets from the trees is done on the event dispatch
+ * thread.</p>
+ */
+class ScreenLoader {
+
+    private static final Logger logger = LogManager.getLogger(ScreenLoader.class);
+    private static final int DEFAULT_THREADS = 4;
+    private static final ExecutorService POOL = newPool();
+
+    private final Protocol protocol;
+    private final ScreenDefineCache cache;
+
+    /**
+     * @param protocol the protocol.
+     * @param cache the screen define cache, or null.
+     */
+    ScreenLoader(Protocol protocol, ScreenDefineCache cache) {
+        this.protocol = protocol;
+        this.cache = cache;
+    }
+
+    private static ExecutorService newPool() {
+        final AtomicInteger seq = new AtomicInteger(1);
+        return Executors.newFixedThreadPool(getThreads(), (Runnable r) -> {
+            Thread t = new Thread(r, "monsia-screen-loader-" + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static int getThreads() {
+        if (System.getProperty("monsia.screen_loader_threads") != null) {
+            return Math.max(1, Integer.parseInt(System.getProperty("monsia.screen_loader_threads")));
+        }
+        return DEFAULT_THREADS;
+    }
+
+    /**
+     * <p>
+     * Starts loading the widget tree of <var>window</var> on the pool.</p>
+     */
+    CompletableFuture<List<WidgetInfo>> load(final String window) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadRoots(window);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, POOL);
+    }
+
+    /**
+     * <p>
+     * Waits for a load and builds the Interface on the event dispatch
+     * thread.</p>
+     */
+    Interface build(CompletableFuture<List<WidgetInfo>> future, final UIControl uiControl) throws IOException, JSONException {
+        final List<WidgetInfo> roots;
+        try {
+            roots = future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        if (SwingUtilities.isEventDispatchThread()) {
+            return new Interface(roots, uiControl);
+        }
+        final Interface[] result = new Interface[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                result[0] = new Interface(roots, uiControl);
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        return result[0];
+    }
+
+    /**
+     * <p>
+     * Returns the parsed widget tree of a window. The tree is taken from the
+     * snapshot in the screen define cache when there is one, otherwise the
+     * definition is parsed and its snapshot is stored.</p>
+     */
+    private List<WidgetInfo> loadRoots(String window) throws IOException, JSONException {
+        if (cache != null) {
+            byte[] snapshot = cache.getSnapshot(window);
+            if (snapshot != null) {
+                try {
+                    return InterfaceSnapshot.read(snapshot);
+                } catch (IOException ex) {
+                    logger.warn("broken snapshot of " + window + " " + ex.getMessage());
+                    cache.removeSnapshot(window);
+                }
+            }
+        }
+        String gladeData = getScreenDefine(window);
+        List<WidgetInfo> roots = Interface.parseRoots(new ByteArrayInputStream(gladeData.getBytes(StandardCharsets.UTF_8)));
+        if (cache != null) {
+            // before building, builders may modify the tree
+            cache.putSnapshot(window, InterfaceSnapshot.toByteArray(roots));
+        }
+        return roots;
+    }
+
+    private String getScreenDefine(String window) throws IOException, JSONException {
+        if (cache == null) {
+            return protocol.getScreenDefine(window);
+        }
+        String define = cache.get(window);
+        if (define == null) {
+            define = protocol.getScreenDefine(window);
+            cache.put(window, define);
+        }
+        return define;
+    }
+}
@@ -0,0 +1,316 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * The screen template of a window, compiled into slots.</p>
+ * <p>
+ * Every value in the template is a slot with a kind, the JSONObject or
+ * JSONArray holding it and its key or index, kept in flat arrays indexed by
+ * slot number. An update is merged by walking the update, not the template,
+ * and only the slots present in it are written. The structure of the template
+ * is fixed when it is compiled: keys and elements that are not in the
+ * template are ignored, as UIControl.updateScreenTemplate does.</p>
+ * <p>
+ * A value that is not in an update, or whose type does not match, is reset
+ * to its default(true, 0, 0.0 or ""). Instead of resetting every slot, the
+ * slots holding other values than the default are kept in a BitSet and only
+ * those not written by the update are reset.</p>
+ */
+class ScreenSchema {
+
+    private static final byte OBJECT = 0;
+    private static final byte ARRAY = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte INTEGER = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    // other values are set when the type matches and never reset
+    private static final byte OTHER = 6;
+
+    private final JSONObject template;
+    private byte[] kinds;
+    private Object[] containers;
+    private String[] keys;
+    private int[] indices;
+    private final List<Map<String, Integer>> members;
+    private final List<int[]> elements;
+    // object and array slot -> index in members or elements
+    private int[] children;
+    private int size;
+
+    // slots holding other values than the default
+    private final BitSet dirty;
+    // slots written by the current update
+    private final BitSet written;
+
+    ScreenSchema(JSONObject template) throws JSONException {
+        this.template = template;
+        kinds = new byte[64];
+        containers = new Object[64];
+        keys = new String[64];
+        indices = new int[64];
+        children = new int[64];
+        members = new ArrayList<>();
+        elements = new ArrayList<>();
+        size = 0;
+        compile(template, null, null, -1);
+        dirty = new BitSet(size);
+        written = new BitSet(size);
+        for (int slot = 0; slot < size; slot++) {
+            if (kinds[slot] > ARRAY && kinds[slot] != OTHER && !isDefault(kinds[slot], get(slot))) {
+                dirty.set(slot);
+            }
+        }
+    }
+
+    private int compile(Object value, Object container, String key, int index) throws JSONException {
+        int slot = size++;
+        if (slot == kinds.length) {
+            int n = slot * 2;
+            kinds = Arrays.copyOf(kinds, n);
+            containers = Arrays.copyOf(containers, n);
+            keys = Arrays.copyOf(keys, n);
+            indices = Arrays.copyOf(indices, n);
+            children = Arrays.copyOf(children, n);
+        }
+        containers[slot] = container;
+        keys[slot] = key;
+        indices[slot] = index;
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            Map<String, Integer> m = new HashMap<>();
+            kinds[slot] = OBJECT;
+            children[slot] = members.size();
+            members.add(m);
+            for (Iterator<String> i = obj.keys(); i.hasNext();) {
+                String k = i.next();
+                m.put(k, compile(obj.get(k), obj, k, -1));
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray arr = (JSONArray) value;
+            int[] e = new int[arr.length()];
+            kinds[slot] = ARRAY;
+            children[slot] = elements.size();
+            elements.add(e);
+            for (int i = 0; i < e.length; i++) {
+                e[i] = compile(arr.get(i), arr, null, i);
+            }
+        } else {
+            kinds[slot] = kindOf(value);
+        }
+        return slot;
+    }
+
+    private static byte kindOf(Object value) {
+        if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof Integer) {
+            return INTEGER;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        } else if (value instanceof String) {
+            return STRING;
+        }
+        return OTHER;
+    }
+
+    JSONObject getTemplate() {
+        return template;
+    }
+
+    int root() {
+        return 0;
+    }
+
+    boolean isObject(int slot) {
+        return kinds[slot] == OBJECT;
+    }
+
+    boolean isArray(int slot) {
+        return kinds[slot] == ARRAY;
+    }
+
+    /**
+     * @return the slot of <var>key</var> in an object slot, or -1.
+     */
+    int member(int slot, String key) {
+        Integer child = members.get(children[slot]).get(key);
+        return child == null ? -1 : child;
+    }
+
+    /**
+     * @return the slot of element <var>i</var> of an array slot, or -1.
+     */
+    int element(int slot, int i) {
+        int[] e = elements.get(children[slot]);
+        return i < e.length ? e[i] : -1;
+    }
+
+    /**
+     * <p>
+     * Starts an update. Every slot not set until end() is reset.</p>
+     */
+    void begin() {
+        written.clear();
+    }
+
+    /**
+     * <p>
+     * Sets a value slot. A value of another type is ignored, so the slot is
+     * reset by end().</p>
+     */
+    void set(int slot, Object value) throws JSONException {
+        byte kind = kinds[slot];
+        if (kind == OBJECT || kind == ARRAY) {
+            return;
+        }
+        if (kind == OTHER) {
+            if (value.getClass() == get(slot).getClass()) {
+                put(slot, value);
+            }
+            return;
+        }
+        if (kindOf(value) != kind) {
+            return;
+        }
+        if (isDefault(kind, value)) {
+            if (dirty.get(slot)) {
+                put(slot, value);
+                dirty.clear(slot);
+            }
+            return;
+        }
+        put(slot, value);
+        dirty.set(slot);
+        written.set(slot);
+    }
+
+    /**
+     * <p>
+     * Ends an update, resetting the slots that hold other values than the
+     * default and were not set.</p>
+     */
+    void end() throws JSONException {
+        for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+            if (!written.get(slot)) {
+                put(slot, defaultValue(kinds[slot]));
+                dirty.clear(slot);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Merges <var>update</var> into the template.</p>
+     */
+    void merge(Object update) throws JSONException {
+        begin();
+        merge(root(), update);
+        end();
+    }
+
+    private void merge(int slot, Object update) throws JSONException {
+        switch (kinds[slot]) {
+            case OBJECT:
+                if (update instanceof JSONObject) {
+                    JSONObject obj = (JSONObject) update;
+                    for (Iterator<String> i = obj.keys(); i.hasNext();) {
+                        String key = i.next();
+                        int child = member(slot, key);
+                        if (child >= 0) {
+                            merge(child, obj.get(key));
+                        }
+                    }
+                }
+                break;
+            case ARRAY:
+                if (update instanceof JSONArray) {
+                    JSONArray arr = (JSONArray) update;
+                    int[] e = elements.get(children[slot]);
+                    int n = Math.min(e.length, arr.length());
+                    for (int i = 0; i < n; i++) {
+                        merge(e[i], arr.get(i));
+                    }
+                }
+                break;
+            default:
+                set(slot, update);
+        }
+    }
+
+    private Object get(int slot) throws JSONException {
+        if (containers[slot] instanceof JSONObject) {
+            return ((JSONObject) containers[slot]).get(keys[slot]);
+        }
+        return ((JSONArray) containers[slot]).get(indices[slot]);
+    }
+
+    private void put(int slot, Object value) throws JSONException {
+        if (containers[slot] instanceof JSONObject) {
+            ((JSONObject) containers[slot]).put(keys[slot], value);
+        } else {
+            ((JSONArray) containers[slot]).put(indices[slot], value);
+        }
+    }
+
+    private static boolean isDefault(byte kind, Object value) {
+        switch (kind) {
+            case BOOLEAN:
+                return (Boolean) value;
+            case INTEGER:
+                return (Integer) value == 0;
+            case DOUBLE:
+                return (Double) value == 0.0;
+            case STRING:
+                return ((String) value).isEmpty();
+            default:
+                return false;
+        }
+    }
+
+    private static Object defaultValue(byte kind) {
+        switch (kind) {
+            case BOOLEAN:
+                return true;
+            case INTEGER:
+                return 0;
+            case DOUBLE:
+                return 0.0;
+            default:
+                return "";
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.awt.Component;
+import java.awt.Window;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import javax.swing.JComponent;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+
+/**
+ * <p>
+ * A RepaintManager that holds layout and painting back during a screen
+ * update.</p>
+ * <p>
+ * Between begin() and end() on the event dispatch thread, revalidate() and
+ * repaint() of widgets only record the window of the widget. end() validates
+ * and repaints each recorded window once. Invalid widgets not in a window
+ * are passed to the usual RepaintManager at end(). Disabled with
+ * monsia.disable_deferred_layout.</p>
+ */
+class ScreenUpdateRepaintManager extends RepaintManager {
+
+    private static final boolean ENABLED = System.getProperty("monsia.disable_deferred_layout") == null;
+
+    private int depth;
+    private final Set<Component> invalid;
+    private final Set<Component> dirty;
+
+    private ScreenUpdateRepaintManager() {
+        depth = 0;
+        invalid = Collections.newSetFromMap(new IdentityHashMap<>());
+        dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private static ScreenUpdateRepaintManager getInstance() {
+        RepaintManager current = RepaintManager.currentManager((Component) null);
+        if (current instanceof ScreenUpdateRepaintManager) {
+            return (ScreenUpdateRepaintManager) current;
+        }
+        ScreenUpdateRepaintManager manager = new ScreenUpdateRepaintManager();
+        RepaintManager.setCurrentManager(manager);
+        return manager;
+    }
+
+    /**
+     * <p>
+     * Starts a screen update. Updates nest. Call on the event dispatch
+     * thread.</p>
+     */
+    static void begin() {
+        if (ENABLED) {
+            getInstance().depth++;
+        }
+    }
+
+    /**
+     * <p>
+     * Ends a screen update. The outermost end() validates and repaints the
+     * windows changed during the update.</p>
+     */
+    static void end() {
+        if (ENABLED) {
+            ScreenUpdateRepaintManager manager = getInstance();
+            if (manager.depth > 0 && --manager.depth == 0) {
+                manager.flush();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Validates <var>c</var>, or its window at end() during a screen
+     * update.</p>
+     */
+    static void validate(Component c) {
+        if (ENABLED && SwingUtilities.isEventDispatchThread() && getInstance().depth > 0) {
+            getInstance().invalid.add(c);
+        } else {
+            c.validate();
+        }
+    }
+
+    private boolean isDeferring() {
+        return depth > 0 && SwingUtilities.isEventDispatchThread();
+    }
+
+    @Override
+    public void addInvalidComponent(JComponent c) {
+        if (isDeferring()) {
+            invalid.add(c);
+        } else {
+            super.addInvalidComponent(c);
+        }
+    }
+
+    @Override
+    public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+        if (isDeferring()) {
+            dirty.add(c);
+        } else {
+            super.addDirtyRegion(c, x, y, w, h);
+        }
+    }
+
+    @Override
+    public void addDirtyRegion(Window window, int x, int y, int w, int h) {
+        if (isDeferring()) {
+            dirty.add(window);
+        } else {
+            super.addDirtyRegion(window, x, y, w, h);
+        }
+    }
+
+    private void flush() {
+        Set<Window> windows = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Component c : invalid) {
+            Window w = getWindow(c);
+            if (w != null) {
+                windows.add(w);
+            } else if (c instanceof JComponent) {
+                super.addInvalidComponent((JComponent) c);
+            }
+        }
+        // a widget not in a window is not shown
+        for (Component c : dirty) {
+            Window w = getWindow(c);
+            if (w != null) {
+                windows.add(w);
+            }
+        }
+        invalid.clear();
+        dirty.clear();
+        for (Window w : windows) {
+            w.validate();
+            w.repaint();
+        }
+    }
+
+    private static Window getWindow(Component c) {
+        return c instanceof Window ? (Window) c : SwingUtilities.getWindowAncestor(c);
+    }
+}
@@ -13,8 +13,10 @@ import java.awt.EventQueue;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import javax.swing.JComponent;
 import javax.swing.JDialog;
@@ -27,6 +29,7 @@ import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.metrics.Metrics;
 import org.montsuqi.monsiaj.client.widgethandlers.WidgetHandler;
 import org.montsuqi.monsiaj.monsia.Interface;
 import org.montsuqi.monsiaj.monsia.Style;
@@ -43,6 +46,8 @@ import org.montsuqi.monsiaj.widgets.Window;
 public class UIControl {
 
     protected static final Logger logger = LogManager.getLogger(UIControl.class);
+    private static final boolean PROFILE = System.getProperty("monsia.do_profile") != null;
+    private static final boolean FINGERPRINT = System.getProperty("monsia.disable_widget_fingerprint") == null;
     private final HashMap<String, Node> nodeTable;
     private String sessionTitle;
     private Color sessionBGColor;
@@ -50,7 +55,10 @@ public class UIControl {
     private final TopWindow topWindow;
     private final Map styleMap;
     private final Map<String, Component> changedWidgetMap;
+    // widgets read by the last updateScreenData()
+    private final List<WidgetBinding> gotBindings;
     private final Map<String, Object> screenTemplateMap;
+    private final Map<String, ScreenSchema> screenSchemaMap;
     private final Client client;
     private final long timerPeriod;
 
@@ -60,7 +68,9 @@ public class UIControl {
         sessionBGColor = null;
         topWindow = new TopWindow();
         changedWidgetMap = new HashMap<>();
+        gotBindings = new ArrayList<>();
         screenTemplateMap = new HashMap<>();
+        screenSchemaMap = new HashMap<>();
         this.client = client;
         styleMap = loadStyles(styleURL);
         this.timerPeriod = timerPeriod;
@@ -72,6 +82,33 @@ public class UIControl {
 
     public void addScreenTemplate(String window, Object object) {
         screenTemplateMap.put(window, object);
+        if (object instanceof JSONObject) {
+            screenSchemaMap.put(window, new ScreenSchema((JSONObject) object));
+        }
+    }
+
+    ScreenSchema getScreenSchema(String window) {
+        return screenSchemaMap.get(window);
+    }
+
+    /**
+     * <p>
+     * Merges the screen data of a response into the template of
+     * <var>window</var> through its ScreenSchema. The result is the same as
+     * updateScreenTemplate, but only the values in <var>screenData</var> and
+     * those to be reset are visited.</p>
+     */
+    public void mergeScreenData(String window, JSONObject screenData) {
+        ScreenSchema schema = screenSchemaMap.get(window);
+        if (schema == null) {
+            updateScreenTemplate(screenTemplateMap.get(window), screenData);
+            return;
+        }
+        try {
+            schema.merge(screenData);
+        } catch (JSONException ex) {
+            logger.catching(Level.FATAL, ex);
+        }
     }
 
     public void updateScreenTemplate(Object tmpl, Object upd) {
@@ -208,29 +245,87 @@ public class UIControl {
         if (widget == null) {
             return;
         }
+        WidgetBinding binding = xml.getBinding(widget);
+        if (binding == null) {
+            logger.warn("no binding for " + widget.getName());
+            return;
+        }
+        if (FINGERPRINT && obj != null) {
+            binding.fingerprint(obj);
+        }
+        setWidget(binding, obj);
+    }
+
+    /**
+     * <p>
+     * Sets <var>obj</var> to the widget of <var>binding</var> and its data to
+     * the widgets under it. Unless monsia.disable_widget_fingerprint is set,
+     * a widget whose data has the fingerprint of the data last set to it is
+     * not set again, and neither are the widgets under it when their data
+     * has not changed either.</p>
+     */
+    private void setWidget(WidgetBinding binding, Object obj) throws JSONException {
         if (obj == null) {
             return;
         }
-        Class clazz = widget.getClass();
-        WidgetHandler handler = WidgetHandler.getHandler(clazz);
-        if (handler != null) {
-            long t1 = System.currentTimeMillis();
-            handler.set(this, widget, (JSONObject) obj, styleMap);
-            long t2 = System.currentTimeMillis();
-            if (System.getProperty("monsia.do_profile") != null) {
-                //logger.info("" + (t2-t1) + "ms " + clazz.getName()+ " " + name);
-            }
+        if (FINGERPRINT && binding.isUnchanged()) {
+            return;
+        }
+        WidgetHandler handler = binding.getHandler();
+        if (handler != null && (!FINGERPRINT || binding.needsSet())) {
+            handler.set(this, binding.getWidget(), (JSONObject) obj, styleMap);
         }
         if (obj instanceof JSONObject) {
             JSONObject j = (JSONObject) obj;
             for (Iterator i = j.keys(); i.hasNext();) {
                 String key = (String) i.next();
-                Component child = xml.getWidgetByLongName(widget.getName() + "." + key);
+                WidgetBinding child = binding.getChild(key);
                 if (child != null) {
-                    setWidget(xml, child, j.get(key));
+                    setWidget(child, j.get(key));
                 }
             }
         }
+        if (FINGERPRINT) {
+            binding.setApplied();
+        }
+    }
+
+    /**
+     * <p>
+     * Makes the widgets of a window be set again by the next update.</p>
+     */
+    public void invalidateWidgets(String name) {
+        Node node = getNode(name);
+        if (node != null) {
+            node.getInterface().invalidateBindings();
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the screen data of a window and shows it. The time taken is
+     * recorded in the WindowMetrics of the window.</p>
+     */
+    public void updateWindow(String name, Object tmpl) throws JSONException {
+        long st = System.currentTimeMillis();
+        Node node = getNode(name);
+        setWidget(node.getInterface(), node.getInterface().getWidgetByLongName(name), tmpl);
+        showWindow(name);
+        Metrics.getWindowMetrics(name).record(System.currentTimeMillis() - st);
+    }
+
+    /**
+     * <p>
+     * Starts a screen update on the event dispatch thread. Layout and
+     * painting are held back until endUpdate(), which validates and repaints
+     * each changed window once.</p>
+     */
+    public void beginUpdate() {
+        ScreenUpdateRepaintManager.begin();
+    }
+
+    public void endUpdate() {
+        ScreenUpdateRepaintManager.end();
     }
 
     public void showWindow(String name) {
@@ -253,13 +348,13 @@ public class UIControl {
             dialog = window.createDialog(topWindow, topWindow);
 
             window.getChild().setBackground(this.sessionBGColor);
-            dialog.validate();
+            ScreenUpdateRepaintManager.validate(dialog);
             resetTimer(dialog);
         } else {
             topWindow.showWindow(window);
             window.getChild().setBackground(this.sessionBGColor);
             resetTimer(window.getChild());
-            topWindow.validate();
+            ScreenUpdateRepaintManager.validate(topWindow);
         }
     }
 
@@ -269,6 +364,7 @@ public class UIControl {
             return;
         }
         Window window = node.getWindow();
+        node.getInterface().invalidateBindings();
 
         if (window.isDialog()) {
             JDialog dialog = window.getDialog();
@@ -424,6 +520,16 @@ public class UIControl {
 
     public void _addChangedWidget(Component widget) {
         changedWidgetMap.put(widget.getName(), widget);
+        // the widget no longer shows the data last set
+        String name = widget.getName();
+        int dot = name.indexOf('.');
+        Node node = getNode(dot < 0 ? name : name.substring(0, dot));
+        if (node != null) {
+            WidgetBinding binding = node.getInterface().getBinding(widget);
+            if (binding != null) {
+                binding.invalidate();
+            }
+        }
     }
 
     public void clearChangedWidget() {
@@ -435,6 +541,28 @@ public class UIControl {
     }
 
     public JSONObject updateScreenData(Interface xml, Component widget, Object obj) throws JSONException {
+        WidgetBinding binding = xml.getBinding(widget);
+        if (binding == null) {
+            logger.warn("no binding for " + widget.getName());
+            return null;
+        }
+        gotBindings.clear();
+        return updateScreenData(binding, obj);
+    }
+
+    /**
+     * <p>
+     * Tells the handlers of the widgets read by the last updateScreenData()
+     * that their data has been sent.</p>
+     */
+    public void markSent() {
+        for (WidgetBinding binding : gotBindings) {
+            binding.getHandler().sent(this, binding.getWidget());
+        }
+        gotBindings.clear();
+    }
+
+    private JSONObject updateScreenData(WidgetBinding binding, Object obj) throws JSONException {
 
         if (!(obj instanceof JSONObject)) {
             return null;
@@ -444,20 +572,20 @@ public class UIControl {
         JSONObject jobj = (JSONObject) obj;
         for (Iterator i = jobj.keys(); i.hasNext();) {
             String key = (String) i.next();
-            Component child = xml.getWidgetByLongName(widget.getName() + "." + key);
-            Object childObj = jobj.get(key);
+            WidgetBinding child = binding.getChild(key);
             if (child != null) {
-                JSONObject childRet = updateScreenData(xml, child, childObj);
+                JSONObject childRet = updateScreenData(child, jobj.get(key));
                 if (childRet != null) {
                     ret.put(key, childRet);
                 }
             }
         }
+        Component widget = binding.getWidget();
         if (changedWidgetMap.containsKey(widget.getName())) {
-            Class clazz = widget.getClass();
-            WidgetHandler handler = WidgetHandler.getHandler(clazz);
+            WidgetHandler handler = binding.getHandler();
             if (handler != null) {
                 handler.get(this, widget, ret);
+                gotBindings.add(binding);
             }
         }
         if (ret.length() <= 0) {
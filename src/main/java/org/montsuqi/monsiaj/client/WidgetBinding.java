@@ -0,0 +1,270 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client;
+
+import java.awt.Component;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.widgethandlers.WidgetHandler;
+
+/**
+ * <p>
+ * A widget of an Interface with its handler and the widgets under it, keyed
+ * by their names in screen data.</p>
+ * <p>
+ * The bindings of an Interface are made once when it is built, so that
+ * UIControl.setWidget and updateScreenData walk screen data without building
+ * long names and searching handlers. The child of a binding named key is the
+ * widget whose long name is the long name of the binding + "." + key.</p>
+ * <p>
+ * A binding also remembers two 64 bit fingerprints of the data last set to
+ * its widget: one of the keys of its own, which are not the data of a widget
+ * under it, and one including the data of the widgets under it. The handler
+ * is not run again while its own keys have not changed, and the walk stops
+ * where nothing under it has changed. See UIControl.setWidget.</p>
+ */
+public final class WidgetBinding {
+
+    private final Component widget;
+    private final WidgetHandler handler;
+    private WidgetBinding parent;
+    private Map<String, WidgetBinding> children;
+    // the handler of this or a widget under it is not idempotent
+    private boolean volatileTree;
+
+    // fingerprint of the data being set, including the widgets under it
+    private long fingerprint;
+    // fingerprint of the data last set, including the widgets under it
+    private long applied;
+    // fingerprint of the own keys of the data being set
+    private long ownFingerprint;
+    // fingerprint of the own keys of the data last set
+    private long ownApplied;
+    // the widget shows the data last set
+    private boolean valid;
+    // the widgets under it show the data last set to them
+    private boolean validTree;
+
+    private WidgetBinding(Component widget) {
+        this.widget = widget;
+        this.handler = WidgetHandler.getHandler(widget.getClass());
+        this.parent = null;
+        this.children = Collections.emptyMap();
+        this.volatileTree = handler != null && !handler.isIdempotent();
+        this.valid = false;
+        this.validTree = false;
+    }
+
+    /**
+     * <p>
+     * Makes the bindings of the widgets in a long name table.</p>
+     *
+     * @param longNameTable long name -> widget.
+     * @return widget -> binding.
+     */
+    public static Map<Component, WidgetBinding> bind(Map<String, Component> longNameTable) {
+        Map<String, WidgetBinding> bindings = new HashMap<>();
+        for (Map.Entry<String, Component> e : longNameTable.entrySet()) {
+            bindings.put(e.getKey(), new WidgetBinding(e.getValue()));
+        }
+        Map<Component, WidgetBinding> result = new IdentityHashMap<>();
+        for (Map.Entry<String, WidgetBinding> e : bindings.entrySet()) {
+            String longName = e.getKey();
+            WidgetBinding binding = e.getValue();
+            result.put(binding.widget, binding);
+            int dot = longName.lastIndexOf('.');
+            if (dot < 0) {
+                continue;
+            }
+            WidgetBinding parent = bindings.get(longName.substring(0, dot));
+            if (parent != null) {
+                if (parent.children.isEmpty()) {
+                    parent.children = new HashMap<>();
+                }
+                parent.children.put(longName.substring(dot + 1), binding);
+                binding.parent = parent;
+            }
+        }
+        for (WidgetBinding binding : bindings.values()) {
+            if (binding.volatileTree) {
+                for (WidgetBinding b = binding.parent; b != null && !b.volatileTree; b = b.parent) {
+                    b.volatileTree = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    public Component getWidget() {
+        return widget;
+    }
+
+    /**
+     * @return the handler, or null if the widget has none.
+     */
+    public WidgetHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return the binding of the child named <var>key</var>, or null.
+     */
+    public WidgetBinding getChild(String key) {
+        return children.get(key);
+    }
+
+    /**
+     * <p>
+     * Computes the fingerprints of <var>obj</var> and of the data of the
+     * widgets under this. Call before isUnchanged() and setApplied().</p>
+     *
+     * @return the fingerprint of <var>obj</var>.
+     */
+    public long fingerprint(Object obj) throws JSONException {
+        if (obj instanceof JSONObject) {
+            JSONObject j = (JSONObject) obj;
+            long h = 0x6f626a656374L;
+            long own = 0x6f626a656374L;
+            for (Iterator<String> i = j.keys(); i.hasNext();) {
+                String key = i.next();
+                Object value = j.get(key);
+                WidgetBinding child = children.get(key);
+                long v;
+                if (child != null) {
+                    v = child.fingerprint(value);
+                } else {
+                    v = hash(value);
+                    own += mix(hash(key) * 0x100000001b3L ^ v);
+                }
+                // the order of keys does not matter
+                h += mix(hash(key) * 0x100000001b3L ^ v);
+            }
+            fingerprint = mix(h);
+            ownFingerprint = mix(own);
+        } else {
+            fingerprint = hash(obj);
+            ownFingerprint = fingerprint;
+        }
+        return fingerprint;
+    }
+
+    private static long hash(Object obj) throws JSONException {
+        if (obj instanceof String) {
+            String s = (String) obj;
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        } else if (obj instanceof JSONObject) {
+            JSONObject j = (JSONObject) obj;
+            long h = 0x6f626a656374L;
+            for (Iterator<String> i = j.keys(); i.hasNext();) {
+                String key = i.next();
+                h += mix(hash(key) * 0x100000001b3L ^ hash(j.get(key)));
+            }
+            return mix(h);
+        } else if (obj instanceof JSONArray) {
+            JSONArray a = (JSONArray) obj;
+            long h = 0x6172726179L;
+            for (int i = 0; i < a.length(); i++) {
+                h = (h ^ hash(a.get(i))) * 0x100000001b3L;
+            }
+            return mix(h + a.length());
+        } else if (obj instanceof Boolean) {
+            return (Boolean) obj ? 0x74727565L : 0x66616c7365L;
+        } else if (obj instanceof Double) {
+            return mix(Double.doubleToLongBits((Double) obj) ^ 0x646f75626c65L);
+        } else if (obj instanceof Number) {
+            return mix(((Number) obj).longValue() ^ 0x6e756d626572L);
+        } else if (obj == null) {
+            return 0;
+        }
+        return mix(obj.toString().hashCode() ^ 0x6f74686572L);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * <p>
+     * Whether the data being set and all data under it are those last set,
+     * and no handler needs them set again.</p>
+     */
+    public boolean isUnchanged() {
+        return valid && validTree && !volatileTree && fingerprint == applied;
+    }
+
+    /**
+     * <p>
+     * Whether the handler of this widget needs the data being set. Only the
+     * own keys count, so that a change under a container does not run the
+     * handler of the container again.</p>
+     */
+    public boolean needsSet() {
+        return !valid || ownFingerprint != ownApplied || (handler != null && !handler.isIdempotent());
+    }
+
+    /**
+     * <p>
+     * Records that the data being set has been set to this widget and to the
+     * widgets under it that were given data.</p>
+     */
+    public void setApplied() {
+        applied = fingerprint;
+        ownApplied = ownFingerprint;
+        valid = true;
+        validTree = true;
+        for (WidgetBinding child : children.values()) {
+            if (!child.valid || !child.validTree) {
+                validTree = false;
+                break;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Forgets the data last set, so that it is set again. Used when the
+     * widget has been changed by the user.</p>
+     */
+    public void invalidate() {
+        valid = false;
+        for (WidgetBinding b = parent; b != null && b.validTree; b = b.parent) {
+            b.validTree = false;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A histogram of latencies in milliseconds.</p>
+ * <p>
+ * Values are counted in fixed buckets growing roughly by 1-2-3-5-7, from
+ * 1ms to 60s, so recording is lock free and the memory is constant. A
+ * percentile is reported as the upper bound of its bucket, and values above
+ * the last bound as the maximum.</p>
+ */
+public class LatencyHistogram {
+
+    private static final long[] BOUNDS = {
+        1, 2, 3, 5, 7,
+        10, 15, 20, 30, 50, 70,
+        100, 150, 200, 300, 500, 700,
+        1000, 1500, 2000, 3000, 5000, 7000,
+        10000, 15000, 20000, 30000, 60000
+    };
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BOUNDS.length + 1);
+        count = new AtomicLong();
+        total = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        buckets.incrementAndGet(indexOf(millis));
+        count.incrementAndGet();
+        total.addAndGet(millis);
+        max.accumulateAndGet(millis, Math::max);
+    }
+
+    private static int indexOf(long millis) {
+        int low = 0;
+        int high = BOUNDS.length;
+        // the first bound >= millis
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS[mid] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * @param p percentile, 0 to 100.
+     * @return the upper bound of the bucket holding the percentile, or 0 if
+     * nothing is recorded.
+     */
+    public long getPercentile(double p) {
+        long n = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * p / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(BOUNDS[i], getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count:" + getCount() + " mean:" + Math.round(getMean()) + "ms p50:" + getPercentile(50)
+                + "ms p95:" + getPercentile(95) + "ms p99:" + getPercentile(99) + "ms max:" + getMax() + "ms";
+    }
+}
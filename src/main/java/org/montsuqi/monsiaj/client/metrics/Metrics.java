@@ -0,0 +1,93 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * The registry of client metrics.</p>
+ * <p>
+ * Metrics are created on first use and registered in the platform MBean
+ * server as org.montsuqi.monsiaj:type=RPC,name=&lt;method&gt; and
+ * org.montsuqi.monsiaj:type=Window,name=&lt;window&gt;, so that they can be
+ * read with jconsole. monsia.disable_jmx keeps them out of JMX.</p>
+ */
+public class Metrics {
+
+    private static final Logger logger = LogManager.getLogger(Metrics.class);
+    private static final String DOMAIN = "org.montsuqi.monsiaj";
+    private static final boolean USE_JMX = System.getProperty("monsia.disable_jmx") == null;
+
+    private static final Map<String, RPCMetrics> RPC = new ConcurrentHashMap<>();
+    private static final Map<String, WindowMetrics> WINDOW = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static RPCMetrics getRPCMetrics(String method) {
+        return RPC.computeIfAbsent(method, (String m) -> {
+            RPCMetrics metrics = new RPCMetrics();
+            register("RPC", m, metrics);
+            return metrics;
+        });
+    }
+
+    public static WindowMetrics getWindowMetrics(String window) {
+        return WINDOW.computeIfAbsent(window, (String w) -> {
+            WindowMetrics metrics = new WindowMetrics();
+            register("Window", w, metrics);
+            return metrics;
+        });
+    }
+
+    public static Map<String, RPCMetrics> getRPCMetrics() {
+        return RPC;
+    }
+
+    public static Map<String, WindowMetrics> getWindowMetrics() {
+        return WINDOW;
+    }
+
+    private static void register(String type, String name, Object mbean) {
+        if (!USE_JMX) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(on)) {
+                server.registerMBean(mbean, on);
+            }
+        } catch (JMException | RuntimeException ex) {
+            logger.warn("cannot register " + type + " metrics " + name + " " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The latency, traffic and errors of one RPC method.</p>
+ * <p>
+ * Bytes are counted before(bytes) and after(wire bytes) the content
+ * coding.</p>
+ */
+public class RPCMetrics implements RPCMetricsMBean {
+
+    private final LatencyHistogram latency;
+    private final AtomicLong errors;
+    private final AtomicLong requestBytes;
+    private final AtomicLong requestWireBytes;
+    private final AtomicLong responseBytes;
+    private final AtomicLong responseWireBytes;
+
+    RPCMetrics() {
+        latency = new LatencyHistogram();
+        errors = new AtomicLong();
+        requestBytes = new AtomicLong();
+        requestWireBytes = new AtomicLong();
+        responseBytes = new AtomicLong();
+        responseWireBytes = new AtomicLong();
+    }
+
+    public void record(long millis, long reqBytes, long reqWireBytes, long resBytes, long resWireBytes) {
+        latency.record(millis);
+        requestBytes.addAndGet(reqBytes);
+        requestWireBytes.addAndGet(reqWireBytes);
+        responseBytes.addAndGet(resBytes);
+        responseWireBytes.addAndGet(resWireBytes);
+    }
+
+    public void error() {
+        errors.incrementAndGet();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanTime() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getMaxTime() {
+        return latency.getMax();
+    }
+
+    @Override
+    public long get50thPercentile() {
+        return latency.getPercentile(50);
+    }
+
+    @Override
+    public long get95thPercentile() {
+        return latency.getPercentile(95);
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return latency.getPercentile(99);
+    }
+
+    @Override
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    @Override
+    public long getRequestWireBytes() {
+        return requestWireBytes.get();
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    @Override
+    public long getResponseWireBytes() {
+        return responseWireBytes.get();
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        errors.set(0);
+        requestBytes.set(0);
+        requestWireBytes.set(0);
+        responseBytes.set(0);
+        responseWireBytes.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return latency + " errors:" + getErrors() + " request_bytes:" + getRequestBytes()
+                + " response_bytes:" + getResponseBytes();
+    }
+}
@@ -0,0 +1,85 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.client.metrics;
+
+/**
+ * <p>
+ * The update time of one window, from setting its screen data to showing
+ * it.</p>
+ */
+public class WindowMetrics implements WindowMetricsMBean {
+
+    private final LatencyHistogram latency;
+
+    WindowMetrics() {
+        latency = new LatencyHistogram();
+    }
+
+    public void record(long millis) {
+        latency.record(millis);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public double getMeanTime() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getMaxTime() {
+        return latency.getMax();
+    }
+
+    @Override
+    public long get50thPercentile() {
+        return latency.getPercentile(50);
+    }
+
+    @Override
+    public long get95thPercentile() {
+        return latency.getPercentile(95);
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return latency.getPercentile(99);
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return latency.toString();
+    }
+}
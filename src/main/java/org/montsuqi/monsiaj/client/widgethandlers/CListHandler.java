@@ -22,7 +22,6 @@
  */
 package org.montsuqi.monsiaj.client.widgethandlers;
 
-import java.awt.Color;
 import java.awt.Component;
 import java.awt.Container;
 import java.util.Map;
@@ -32,14 +31,13 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JViewport;
 import javax.swing.ListSelectionModel;
-import javax.swing.event.TableModelListener;
-import javax.swing.table.DefaultTableModel;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.montsuqi.monsiaj.client.UIControl;
-import org.montsuqi.monsiaj.util.SafeColorDecoder;
+import org.montsuqi.monsiaj.util.ColorPalette;
 import org.montsuqi.monsiaj.widgets.PandaCList;
+import org.montsuqi.monsiaj.widgets.PandaCListModel;
 
 /**
  * <p>
@@ -52,8 +50,7 @@ class CListHandler extends WidgetHandler {
         JTable table = (JTable) widget;
         PandaCList clist = (PandaCList) widget;
 
-        DefaultTableModel tableModel = (DefaultTableModel) table.getModel();
-        TableModelListener[] listeners = tableModel.getTableModelListeners();
+        final PandaCListModel tableModel = (PandaCListModel) table.getModel();
 
         int count = 0;
         if (obj.has("count")) {
@@ -83,60 +80,31 @@ class CListHandler extends WidgetHandler {
         }
 
         if (obj.has("item")) {
-            JSONArray array = obj.getJSONArray("item");
+            final JSONArray array = obj.getJSONArray("item");
             int n = array.length();
             n = n > count ? count : n;
-            int rows = tableModel.getRowCount();
-            int columns = tableModel.getColumnCount();
-            for (TableModelListener l : listeners) {
-                tableModel.removeTableModelListener(l);
-            }
-
-            if (n < rows) {
-                for (int i = rows; i > n; i--) {
-                    tableModel.removeRow(i - 1);
-                }
-            } else if (n > rows) {
-                Object rowData[] = new String[columns];
-                for (int i = rows; i < n; i++) {
-                    tableModel.addRow(rowData);
-                }
-            }
-
-            for (int i = 0; i < n; i++) {
+            tableModel.replaceAll(n, (int i, String[] values) -> {
                 JSONObject rowObj = array.getJSONObject(i);
-
-                for (int j = 0; j < columns; j++) {
-                    String key = "column" + (j + 1);
-                    tableModel.setValueAt(rowObj.getString(key), i, j);
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = rowObj.getString(tableModel.getColumnKey(j));
                 }
-            }
-
-            for (TableModelListener l : listeners) {
-                tableModel.addTableModelListener(l);
-            }
+            });
         }
 
         if (obj.has("bgcolor")) {
             JSONArray array = obj.getJSONArray("bgcolor");
-            Color[] bgcolors = new Color[array.length()];
+            short[] bgcolors = new short[array.length()];
             for (int i = 0; i < array.length(); i++) {
-                bgcolors[i] = SafeColorDecoder.decode(array.getString(i));
-                if (bgcolors[i] == null) {
-                    bgcolors[i] = Color.WHITE;
-                }
+                bgcolors[i] = ColorPalette.intern(array.getString(i), ColorPalette.WHITE);
             }
             clist.setBGColors(bgcolors);
         }
 
         if (obj.has("fgcolor")) {
             JSONArray array = obj.getJSONArray("fgcolor");
-            Color[] fgcolors = new Color[array.length()];
+            short[] fgcolors = new short[array.length()];
             for (int i = 0; i < array.length(); i++) {
-                fgcolors[i] = SafeColorDecoder.decode(array.getString(i));
-                if (fgcolors[i] == null) {
-                    fgcolors[i] = Color.BLACK;
-                }
+                fgcolors[i] = ColorPalette.intern(array.getString(i), ColorPalette.BLACK);
             }
             clist.setFGColors(fgcolors);
         }
@@ -196,8 +164,10 @@ class CListHandler extends WidgetHandler {
             }
         }
         this.setCommonAttribute(widget, obj, styleMap);
-        widget.setVisible(false);
-        widget.setVisible(true);
+        // laid out and painted with the window at the end of the update
+        clist.setVisible(true);
+        clist.revalidate();
+        clist.repaint();
         clist.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
     }
 
@@ -212,14 +182,27 @@ class CListHandler extends WidgetHandler {
                 break;
             }
         }
+        boolean[] selection = clist.getSelection();
+        int n = selection.length;
+        if (SPARSE_TABLE_DATA) {
+            // up to the last row whose selection has changed
+            n = clist.getLastChangedSelection() + 1;
+            if (n <= 0) {
+                return;
+            }
+        }
         JSONArray array = new JSONArray();
         obj.put("selectdata", array);
-        boolean[] selection = clist.getSelection();
-        for (int j = 0; j < selection.length; j++) {
+        for (int j = 0; j < n; j++) {
             array.put(j, selection[j]);
         }
     }
 
+    @Override
+    public void sent(UIControl con, Component widget) {
+        ((PandaCList) widget).markSelectionClean();
+    }
+
     private boolean isVisibleRow(JTable table, int row) {
         JScrollBar vScroll = getVerticalScrollBar(table);
         if (vScroll == null) {
@@ -23,15 +23,14 @@
 package org.montsuqi.monsiaj.client.widgethandlers;
 
 import java.awt.Component;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.Protocol;
 import org.montsuqi.monsiaj.client.UIControl;
 import org.montsuqi.monsiaj.util.TempFile;
 import org.montsuqi.monsiaj.widgets.PandaDownload;
@@ -59,23 +58,32 @@ public class DownloadHandler extends WidgetHandler {
         }
 
         if (obj.has("objectdata")) {
-            try {
-                String oid = obj.getString("objectdata");
-                if (oid.isEmpty() || oid.equals("0")) {
-                } else {
-                    File temp = TempFile.createTempFile("pandadonwload", fileName);
+            String oid = obj.getString("objectdata");
+            if (oid.isEmpty() || oid.equals("0")) {
+            } else {
+                final String name = fileName;
+                final String desc = description;
+                // a newer set of the same object shows it instead
+                con.getClient().getBlobFetcher().fetch(oid, oid, (Protocol protocol, String id) -> {
+                    File temp = TempFile.createTempFile("pandadonwload", name);
                     temp.deleteOnExit();
-                    int status = con.getClient().getProtocol().getBLOB(oid, new BufferedOutputStream(new FileOutputStream(temp)));
-                    if (status == 200) {
-                        download.showDialog(fileName, description, temp);
+                    return protocol.getBLOB(id, temp) == 200 ? temp : null;
+                }, (File temp) -> {
+                    try {
+                        download.showDialog(name, desc, temp);
+                    } catch (IOException ex) {
+                        logger.warn(ex);
                     }
-                }
-            } catch (IOException ex) {
-                logger.warn(ex);
+                });
             }
         }
     }
 
+    @Override
+    public boolean isIdempotent() {
+        return false;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
     }
@@ -23,6 +23,7 @@
 package org.montsuqi.monsiaj.client.widgethandlers;
 
 import java.awt.Component;
+import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
@@ -48,15 +49,22 @@ class FileChooserButtonHandler extends WidgetHandler {
         con._addChangedWidget(widget);
     }
 
+    @Override
+    public boolean isIdempotent() {
+        return false;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
         FileChooserButton fcb = (FileChooserButton) widget;
-        byte[] binary = fcb.loadData();
-        if (binary.length <= 0) {
+        File file = fcb.getFile();
+        if (file == null || file.length() <= 0) {
             return;
         }
         try {
-            String oid = con.getClient().getProtocol().postBLOB(binary);
+            String oid = con.getClient().getProtocol().postBLOB(file.toPath(), (long bytes, long total) -> {
+                logger.debug("upload " + file.getName() + " " + bytes + "/" + total);
+            });
             obj.put("objectdata", oid);
             obj.put("filename", fcb.getFileName());
         } catch (IOException ex) {
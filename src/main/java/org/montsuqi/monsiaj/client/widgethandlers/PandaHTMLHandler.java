@@ -55,6 +55,11 @@ public class PandaHTMLHandler extends WidgetHandler {
         }
     }
 
+    @Override
+    public boolean isIdempotent() {
+        return false;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
     }
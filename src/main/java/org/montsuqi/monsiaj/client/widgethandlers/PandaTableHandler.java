@@ -28,7 +28,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -51,7 +51,7 @@ class PandaTableHandler extends WidgetHandler {
     public void set(UIControl con, Component widget, JSONObject obj, Map styleMap) throws JSONException {
         PandaTable table = (PandaTable) widget;
 
-        DefaultTableModel tableModel = (DefaultTableModel) table.getModel();
+        TableModel tableModel = table.getModel();
 
         this.setCommonAttribute(widget, obj, styleMap);
 
@@ -99,28 +99,30 @@ class PandaTableHandler extends WidgetHandler {
             }
         }
 
-        if (obj.has("rowdata")) {           
+        if (obj.has("rowdata")) {
             JSONArray array = obj.getJSONArray("rowdata");
-//System.out.println("rowdata length:"+array.length());                            
+            int columns = table.getColumns();
+            boolean changed = false;
             for (int i = 0; i < array.length(); i++) {
                 JSONObject rowObj = array.getJSONObject(i);
-                for (int j = 0; j < table.getColumns(); j++) {
-                    String key = "column" + (j + 1);                    
-                    if (rowObj.has(key)) {
-                        JSONObject colObj = rowObj.getJSONObject(key);
-//System.out.println(key + " " + colObj.toString());                        
+                for (int j = 0; j < columns; j++) {
+                    JSONObject colObj = rowObj.optJSONObject(table.getColumnKey(j));
+                    if (colObj != null) {
                         if (colObj.has("celldata")) {
-                            table.setCell(i, j, colObj.getString("celldata"));
+                            changed |= table.putCell(i, j, colObj.getString("celldata"));
                         }
                         if (colObj.has("fgcolor")) {
-                            table.setFGColor(i, j, colObj.getString("fgcolor"));
+                            changed |= table.setFGColor(i, j, colObj.getString("fgcolor"));
                         }
                         if (colObj.has("bgcolor")) {
-                            table.setBGColor(i, j, colObj.getString("bgcolor"));
+                            changed |= table.setBGColor(i, j, colObj.getString("bgcolor"));
                         }
                     }
                 }
             }
+            if (changed) {
+                table.fireCellsUpdated();
+            }
         }
 
         widget.validate();
@@ -155,37 +157,58 @@ class PandaTableHandler extends WidgetHandler {
         con._addChangedWidget(widget);
     }
 
+    @Override
+    public boolean isIdempotent() {
+        return false;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
         PandaTable table = (PandaTable) widget;
-        DefaultTableModel tableModel = (DefaultTableModel) table.getModel();
+        TableModel tableModel = table.getModel();
         obj.put("trow", table.getChangedRow() + 1);
         obj.put("tcolumn", table.getChangedColumn() + 1);
         obj.put("tvalue", table.getChangedValue());
 
-        int k = 0;
+        int columns = table.getColumns();
         JSONArray array = new JSONArray();
-        obj.put("rowdata", array);        
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            for (int j = 0; j < table.getColumns(); j++) {
-                String val = (String)tableModel.getValueAt(i, j);
-                if (!val.isEmpty()) {
-                    k = i + 1;
+        if (SPARSE_TABLE_DATA) {
+            // the edited cells, with empty rows up to the last one
+            int cell = table.nextDirtyCell(0);
+            if (cell < 0) {
+                return;
+            }
+            obj.put("rowdata", array);
+            for (; cell >= 0; cell = table.nextDirtyCell(cell + 1)) {
+                int i = cell / columns;
+                int j = cell % columns;
+                while (array.length() <= i) {
+                    array.put(new JSONObject());
                 }
+                JSONObject colObj = new JSONObject();
+                colObj.put("celldata", table.getStringValueAt(i, j));
+                array.getJSONObject(i).put(table.getColumnKey(j), colObj);
             }
+            return;
         }
+        obj.put("rowdata", array);
+        int k = table.getLastNonEmptyRow() + 1;
         for (int i = 0; i < k; i++) {
             JSONObject rowObj = new JSONObject();
             array.put(i, rowObj);
-            for (int j = 0; j < table.getColumns(); j++) {
-                String key = "column" + (j + 1);
+            for (int j = 0; j < columns; j++) {
                 JSONObject colObj = new JSONObject();
-                rowObj.put(key, colObj);
-                colObj.put("celldata", (String) tableModel.getValueAt(i, j));
+                rowObj.put(table.getColumnKey(j), colObj);
+                colObj.put("celldata", tableModel.getValueAt(i, j));
             }
         }
     }
 
+    @Override
+    public void sent(UIControl con, Component widget) {
+        ((PandaTable) widget).markClean();
+    }
+
     private JScrollBar getVerticalScrollBar(JTable table) {
         Container parent = table.getParent();
         if (parent instanceof JViewport) {
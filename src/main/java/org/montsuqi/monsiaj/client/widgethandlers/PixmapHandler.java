@@ -32,6 +32,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.Protocol;
 import org.montsuqi.monsiaj.client.UIControl;
 import org.montsuqi.monsiaj.widgets.Pixmap;
 
@@ -49,26 +50,29 @@ public class PixmapHandler extends WidgetHandler {
         Pixmap pixmap = (Pixmap) widget;
         this.setCommonAttribute(widget, obj, styleMap);
         if (obj.has("objectdata")) {
-            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-            try {
-                pixmap.setIcon(null);
-                String oid = obj.getString("objectdata");
-                if (oid.isEmpty() || oid.equals("0")) {
-                } else {
-                    int status = con.getClient().getProtocol().getBLOB(oid, bytes);
-                    if (status == 200 && bytes.size() > 0) {
-                        Icon icon = new ImageIcon(bytes.toByteArray());
-                        pixmap.setText("");
-                        pixmap.setIcon(icon);
-                        pixmap.validate();
-                    }
-                }
-            } catch (IOException ex) {
-                logger.warn(ex);
+            pixmap.setIcon(null);
+            String oid = obj.getString("objectdata");
+            if (oid.isEmpty() || oid.equals("0")) {
+                con.getClient().getBlobFetcher().cancel(pixmap);
+            } else {
+                con.getClient().getBlobFetcher().fetch(pixmap, oid, PixmapHandler::loadIcon, (Icon icon) -> {
+                    pixmap.setText("");
+                    pixmap.setIcon(icon);
+                    pixmap.validate();
+                });
             }
         }
     }
 
+    private static Icon loadIcon(Protocol protocol, String oid) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int status = protocol.getBLOB(oid, bytes);
+        if (status == 200 && bytes.size() > 0) {
+            return new ImageIcon(bytes.toByteArray());
+        }
+        return null;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
     }
@@ -23,16 +23,14 @@
 package org.montsuqi.monsiaj.client.widgethandlers;
 
 import java.awt.Component;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.Protocol;
 import org.montsuqi.monsiaj.client.UIControl;
 import org.montsuqi.monsiaj.util.TempFile;
 import org.montsuqi.monsiaj.widgets.PandaPreview;
@@ -55,22 +53,24 @@ class PreviewHandler extends WidgetHandler {
         preview.clear();
         this.setCommonAttribute(widget, obj, styleMap);
         if (obj.has("objectdata")) {
-            try {
-                String oid = obj.getString("objectdata");
-                if (oid.isEmpty() || oid.equals("0")) {
-                } else {
-                    File temp = TempFile.createTempFile(TEMP_PREFIX, TEMP_SUFFIX);
-                    temp.deleteOnExit();
-                    OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
-                    con.getClient().getProtocol().getBLOB(oid, out);
+            String oid = obj.getString("objectdata");
+            if (oid.isEmpty() || oid.equals("0")) {
+                con.getClient().getBlobFetcher().cancel(preview);
+            } else {
+                con.getClient().getBlobFetcher().fetch(preview, oid, PreviewHandler::loadFile, (File temp) -> {
                     preview.load(temp.getAbsolutePath());
-                }
-            } catch (IOException | JSONException ex) {
-                logger.warn(ex);
+                });
             }
         }
     }
 
+    private static File loadFile(Protocol protocol, String oid) throws IOException {
+        File temp = TempFile.createTempFile(TEMP_PREFIX, TEMP_SUFFIX);
+        temp.deleteOnExit();
+        protocol.getBLOB(oid, temp);
+        return temp;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
     }
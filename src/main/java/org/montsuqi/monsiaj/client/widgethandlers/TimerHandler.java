@@ -47,6 +47,11 @@ public class TimerHandler extends WidgetHandler {
         }
     }
 
+    @Override
+    public boolean isIdempotent() {
+        return false;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
         PandaTimer timer = (PandaTimer) widget;
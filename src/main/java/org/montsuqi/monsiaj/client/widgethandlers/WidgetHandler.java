@@ -58,10 +58,21 @@ import org.montsuqi.monsiaj.widgets.Window;
  */
 public abstract class WidgetHandler {
 
+    /**
+     * <p>
+     * With monsia.sparse_table_data, the table handlers send only what the
+     * user has changed since the last send. This needs a server that keeps
+     * the values of the rows and cells that are not sent.</p>
+     */
+    static final boolean SPARSE_TABLE_DATA = System.getProperty("monsia.sparse_table_data") != null;
+
     private static final Map<Class, WidgetHandler> classTable;
+    // class -> handler found in its hierarchy, null if none
+    private static final Map<Class, WidgetHandler> resolvedTable;
 
     static {
         classTable = new HashMap<>();
+        resolvedTable = new HashMap<>();
         registerHandler(JTextField.class, new EntryHandler());
         registerHandler(NumberEntry.class, new NumberEntryHandler());
         registerHandler(JTextArea.class, new TextHandler());
@@ -88,6 +99,27 @@ public abstract class WidgetHandler {
 
     public abstract void get(UIControl con, Component widget, JSONObject obj) throws JSONException;
 
+    /**
+     * <p>
+     * Whether setting the same data again leaves the widget as it is. When
+     * true, UIControl skips set() for data that has not changed since it was
+     * last set. Handlers that start something on every set override this to
+     * return false: the window shows its popup notification, the file
+     * chooser button clears the chosen file, the timer restarts, PandaHTML
+     * reloads its page, PandaDownload shows its downloads and PandaTable
+     * marks its rows changed.</p>
+     */
+    public boolean isIdempotent() {
+        return true;
+    }
+
+    /**
+     * <p>
+     * Called after the data got by get() has been sent to the server.</p>
+     */
+    public void sent(UIControl con, Component widget) {
+    }
+
     public void setStyle(Map styleMap, Component widget, String styleName) {
         Style style;
         if (styleMap.containsKey(styleName)) {
@@ -160,12 +192,27 @@ public abstract class WidgetHandler {
         classTable.put(clazz, marshaller);
     }
 
+    /**
+     * <p>
+     * Returns the handler of <var>clazz</var> or its nearest superclass. The
+     * result is remembered for each class.</p>
+     */
     public static WidgetHandler getHandler(Class clazz) {
+        synchronized (resolvedTable) {
+            if (resolvedTable.containsKey(clazz)) {
+                return resolvedTable.get(clazz);
+            }
+        }
+        WidgetHandler handler = null;
         for (Class c = clazz; c != null; c = c.getSuperclass()) {
             if (classTable.containsKey(c)) {
-                return (WidgetHandler) classTable.get(c);
+                handler = (WidgetHandler) classTable.get(c);
+                break;
             }
         }
-        return null;
+        synchronized (resolvedTable) {
+            resolvedTable.put(clazz, handler);
+        }
+        return handler;
     }
 }
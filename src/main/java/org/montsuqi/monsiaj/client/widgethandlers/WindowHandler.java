@@ -75,6 +75,11 @@ public class WindowHandler extends WidgetHandler {
         }
     }
 
+    @Override
+    public boolean isIdempotent() {
+        return false;
+    }
+
     @Override
     public void get(UIControl con, Component widget, JSONObject obj) throws JSONException {
     }
@@ -175,6 +175,19 @@ abstract class AbstractDocumentHandler extends DefaultHandler {
         logger.warn("{0} is not supported in Java", value);
     }
 
+    /**
+     * <p>
+     * Returns the top level widgets as the result of parsing.</p>
+     *
+     * @return the top level widgets.
+     */
+    protected List<WidgetInfo> getTopLevels() {
+        if (isFinished()) {
+            return topLevels;
+        }
+        throw new IllegalStateException("parsing is not finished yet");
+    }
+
     /**
      * <
      * p>
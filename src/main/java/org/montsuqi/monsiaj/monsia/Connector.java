@@ -579,6 +579,10 @@ abstract class Connector {
 
                                 @Override
                                 public void tableChanged(TableModelEvent te) {
+                                    if (te.getColumn() == TableModelEvent.ALL_COLUMNS) {
+                                        // updated by the server, not edited
+                                        return;
+                                    }
                                     if (table.isEnterPressed()) {
                                         int row = te.getLastRow();
                                         int col = te.getColumn();
@@ -55,6 +55,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.montsuqi.monsiaj.client.SignalHandler;
 import org.montsuqi.monsiaj.client.UIControl;
+import org.montsuqi.monsiaj.client.WidgetBinding;
 import org.montsuqi.monsiaj.monsia.builders.WidgetBuilder;
 import org.montsuqi.monsiaj.util.ParameterConverter;
 import org.montsuqi.monsiaj.widgets.PandaCList;
@@ -70,6 +71,7 @@ public class Interface {
 
     private Map<String, Component> widgetNameTable;
     private Map<String, Component> widgetLongNameTable;
+    private Map<Component, WidgetBinding> bindingTable;
     private Map<String, Map<String, String>> propertyTable;
     private Map<String, ButtonGroup> buttonGroups;
     private UIControl uiControl;
@@ -97,17 +99,19 @@ public class Interface {
     public void setFocusWidget(Component widget) {
         focusWidget = widget;
     }
-    private static final SAXParser saxParser;
-
-    static {
-        SAXParserFactory parserFactory = SAXParserFactory.newInstance();
-        parserFactory.setNamespaceAware(true);
-        try {
-            saxParser = parserFactory.newSAXParser();
-        } catch (ParserConfigurationException | SAXException e) {
-            throw new ExceptionInInitializerError(e);
+    // SAXParser is not thread-safe, screens are parsed on several threads
+    private static final ThreadLocal<SAXParser> saxParser = new ThreadLocal<SAXParser>() {
+        @Override
+        protected SAXParser initialValue() {
+            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+            parserFactory.setNamespaceAware(true);
+            try {
+                return parserFactory.newSAXParser();
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new InterfaceBuildingException(e);
+            }
         }
-    }
+    };
     private static final int OLD_PROLOGUE_LENGTH = 128;
 
     /**
@@ -132,27 +136,37 @@ public class Interface {
      * @return an Interface instance.
      */
     public static Interface parseInput(InputStream input, UIControl uiControl) {
-        try {
-            if (!(input instanceof BufferedInputStream)) {
-                input = new BufferedInputStream(input);
-            }
-
-            String handlerClassName = System.getProperty("monsia.document.handler");
-            if (handlerClassName == null) {
-                handlerClassName = isNewScreenDefinition(input) ? NEW_HANDLER : OLD_HANDLER;
-            }
+        return new Interface(parseRoots(input, false), uiControl);
+    }
 
-            Class handlerClass = Class.forName(handlerClassName);
-            AbstractDocumentHandler handler = (AbstractDocumentHandler) handlerClass.newInstance();
+    public static Interface parseInput(InputStream input) {
+        return new Interface(parseRoots(input, true));
+    }
 
-            saxParser.parse(input, handler);
-            return handler.getInterface(uiControl);
-        } catch (IOException | ClassNotFoundException | InstantiationException | IllegalAccessException | SAXException e) {
-            throw new InterfaceBuildingException(e);
-        }
+    /**
+     * <p>
+     * Parses an interface definition into its widget trees without building
+     * widgets. The handler is selected as in parseInput. The result can be
+     * saved with InterfaceSnapshot and passed to the constructor.</p>
+     *
+     * @param input source input stream from which the Glade file is read.
+     * @return the top level widgets.
+     */
+    public static List<WidgetInfo> parseRoots(InputStream input) {
+        return parseRoots(input, false);
     }
 
-    public static Interface parseInput(InputStream input) {
+    /**
+     * <p>
+     * Same as parseRoots(InputStream), but when <var>fakeOldEncoding</var> is
+     * true an old style definition is read through FakeEncodingInputStream as
+     * parseInput(InputStream) does.</p>
+     *
+     * @param input source input stream from which the Glade file is read.
+     * @param fakeOldEncoding whether to fake the encoding of old definitions.
+     * @return the top level widgets.
+     */
+    public static List<WidgetInfo> parseRoots(InputStream input, boolean fakeOldEncoding) {
         try {
             if (!(input instanceof BufferedInputStream)) {
                 input = new BufferedInputStream(input);
@@ -166,11 +180,11 @@ public class Interface {
             Class handlerClass = Class.forName(handlerClassName);
             AbstractDocumentHandler handler = (AbstractDocumentHandler) handlerClass.newInstance();
 
-            if (handlerClassName.equals(OLD_HANDLER)) {
+            if (fakeOldEncoding && handlerClassName.equals(OLD_HANDLER)) {
                 input = new FakeEncodingInputStream(input);
             }
-            saxParser.parse(input, handler);
-            return handler.getInterface();
+            saxParser.get().parse(input, handler);
+            return handler.getTopLevels();
         } catch (IOException | ClassNotFoundException | InstantiationException | IllegalAccessException | SAXException e) {
             throw new InterfaceBuildingException(e);
         }
@@ -200,12 +214,14 @@ public class Interface {
         initMember();
         this.uiControl = uiControl;
         buildWidgetTree(roots);
+        bindingTable = WidgetBinding.bind(widgetLongNameTable);
         signalAutoConnect();
     }
 
     public Interface(List roots) {
         initMember();
         buildWidgetTree(roots);
+        bindingTable = WidgetBinding.bind(widgetLongNameTable);
     }
 
     private void signalAutoConnect() {
@@ -253,6 +269,25 @@ public class Interface {
         return (Component) widgetLongNameTable.get(longName);
     }
 
+    /**
+     * <p>
+     * Returns the binding of <var>widget</var>, or null if it is not a widget
+     * of this interface.</p>
+     */
+    public WidgetBinding getBinding(Component widget) {
+        return bindingTable.get(widget);
+    }
+
+    /**
+     * <p>
+     * Invalidates all bindings, so that all widgets are set again.</p>
+     */
+    public void invalidateBindings() {
+        for (WidgetBinding binding : bindingTable.values()) {
+            binding.invalidate();
+        }
+    }
+
     public void setButtonGroup(JRadioButton button, String groupName) {
         JRadioButton none;
         ButtonGroup group;
@@ -0,0 +1,273 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.monsia;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A compact binary form of the parsed widget tree(WidgetInfo, ChildInfo,
+ * SignalInfo and AccelInfo) of an interface definition.</p>
+ * <p>
+ * Reading a snapshot gives the same tree as parsing the XML, without a SAX
+ * parser. Pass the result to the Interface constructor. All strings are
+ * written once into a table at the head and referred to by index, since
+ * class names, property names and values repeat a lot in a screen.</p>
+ * <p>
+ * A snapshot must be taken before an Interface is built from the tree, as
+ * widget builders may modify it.</p>
+ */
+public class InterfaceSnapshot {
+
+    private static final int MAGIC = 0x4d534e50; // MSNP
+    private static final int VERSION = 1;
+
+    private InterfaceSnapshot() {
+    }
+
+    /**
+     * <p>
+     * Serializes the widget trees of <var>roots</var>.</p>
+     *
+     * @param roots top level widgets as returned by Interface.parseRoots.
+     * @return the snapshot.
+     */
+    public static byte[] toByteArray(List<WidgetInfo> roots) {
+        Map<String, Integer> table = new LinkedHashMap<>();
+        for (WidgetInfo info : roots) {
+            collectStrings(info, table);
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeInt(out, table.size());
+            for (String s : table.keySet()) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                writeInt(out, b.length);
+                out.write(b);
+            }
+            writeInt(out, roots.size());
+            for (WidgetInfo info : roots) {
+                writeWidget(out, info, table);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            // never happens on a ByteArrayOutputStream
+            throw new InterfaceBuildingException(ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Rebuilds the widget trees from a snapshot.</p>
+     *
+     * @param snapshot bytes made by toByteArray.
+     * @return top level widgets.
+     * @throws IOException if the snapshot is broken or of another version.
+     */
+    public static List<WidgetInfo> read(byte[] snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not an interface snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported snapshot version:" + version);
+        }
+        String[] table = new String[readInt(in)];
+        for (int i = 0; i < table.length; i++) {
+            byte[] b = new byte[readInt(in)];
+            in.readFully(b);
+            table[i] = new String(b, StandardCharsets.UTF_8);
+        }
+        int n = readInt(in);
+        List<WidgetInfo> roots = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            roots.add(readWidget(in, table, null));
+        }
+        return roots;
+    }
+
+    private static void collectStrings(WidgetInfo info, Map<String, Integer> table) {
+        intern(info.getClassName(), table);
+        intern(info.getName(), table);
+        for (Map.Entry<String, String> e : info.getProperties().entrySet()) {
+            intern(e.getKey(), table);
+            intern(e.getValue(), table);
+        }
+        for (Object o : info.getSignals()) {
+            SignalInfo signal = (SignalInfo) o;
+            intern(signal.getName(), table);
+            intern(signal.getHandler(), table);
+            intern(signal.getObject(), table);
+        }
+        for (Object o : info.getAccels()) {
+            intern(((AccelInfo) o).getSignal(), table);
+        }
+        for (Object o : info.getChildren()) {
+            ChildInfo child = (ChildInfo) o;
+            for (Object e : child.getProperties().entrySet()) {
+                Map.Entry entry = (Map.Entry) e;
+                intern((String) entry.getKey(), table);
+                intern((String) entry.getValue(), table);
+            }
+            if (child.getWidgetInfo() != null) {
+                collectStrings(child.getWidgetInfo(), table);
+            }
+        }
+    }
+
+    private static void intern(String s, Map<String, Integer> table) {
+        if (s != null && !table.containsKey(s)) {
+            table.put(s, table.size());
+        }
+    }
+
+    private static void writeWidget(DataOutputStream out, WidgetInfo info, Map<String, Integer> table) throws IOException {
+        writeString(out, info.getClassName(), table);
+        writeString(out, info.getName(), table);
+        writeInt(out, info.getProperties().size());
+        for (Map.Entry<String, String> e : info.getProperties().entrySet()) {
+            writeString(out, e.getKey(), table);
+            writeString(out, e.getValue(), table);
+        }
+        List signals = info.getSignals();
+        writeInt(out, signals.size());
+        for (Object o : signals) {
+            SignalInfo signal = (SignalInfo) o;
+            writeString(out, signal.getName(), table);
+            writeString(out, signal.getHandler(), table);
+            writeString(out, signal.getObject(), table);
+            out.writeBoolean(signal.isAfter());
+        }
+        List accels = info.getAccels();
+        writeInt(out, accels.size());
+        for (Object o : accels) {
+            AccelInfo accel = (AccelInfo) o;
+            writeInt(out, accel.getKey());
+            writeInt(out, accel.getModifiers());
+            writeString(out, accel.getSignal(), table);
+        }
+        List children = info.getChildren();
+        writeInt(out, children.size());
+        for (Object o : children) {
+            ChildInfo child = (ChildInfo) o;
+            Map properties = child.getProperties();
+            writeInt(out, properties.size());
+            for (Object e : properties.entrySet()) {
+                Map.Entry entry = (Map.Entry) e;
+                writeString(out, (String) entry.getKey(), table);
+                writeString(out, (String) entry.getValue(), table);
+            }
+            WidgetInfo widget = child.getWidgetInfo();
+            out.writeBoolean(widget != null);
+            if (widget != null) {
+                writeWidget(out, widget, table);
+            }
+        }
+    }
+
+    private static WidgetInfo readWidget(DataInputStream in, String[] table, WidgetInfo parent) throws IOException {
+        WidgetInfo info = new WidgetInfo(readString(in, table), readString(in, table));
+        info.setParent(parent);
+        int n = readInt(in);
+        for (int i = 0; i < n; i++) {
+            info.addProperty(readString(in, table), readString(in, table));
+        }
+        n = readInt(in);
+        for (int i = 0; i < n; i++) {
+            String name = readString(in, table);
+            String handler = readString(in, table);
+            String object = readString(in, table);
+            info.addSignalInfo(new SignalInfo(name, handler, object, in.readBoolean()));
+        }
+        n = readInt(in);
+        for (int i = 0; i < n; i++) {
+            int key = readInt(in);
+            int modifiers = readInt(in);
+            info.addAccelInfo(new AccelInfo(key, modifiers, readString(in, table)));
+        }
+        n = readInt(in);
+        for (int i = 0; i < n; i++) {
+            ChildInfo child = new ChildInfo();
+            int m = readInt(in);
+            for (int j = 0; j < m; j++) {
+                child.addProperty(readString(in, table), readString(in, table));
+            }
+            if (in.readBoolean()) {
+                child.setWidgetInfo(readWidget(in, table, info));
+            }
+            info.addChild(child);
+        }
+        return info;
+    }
+
+    private static void writeString(DataOutputStream out, String s, Map<String, Integer> table) throws IOException {
+        // 0 is null
+        writeInt(out, s == null ? 0 : table.get(s) + 1);
+    }
+
+    private static String readString(DataInputStream in, String[] table) throws IOException {
+        int i = readInt(in);
+        if (i == 0) {
+            return null;
+        }
+        if (i > table.length) {
+            throw new IOException("bad string index:" + i);
+        }
+        return table[i - 1];
+    }
+
+    /* variable length, 7 bits per byte */
+    private static void writeInt(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("bad variable length integer");
+    }
+}
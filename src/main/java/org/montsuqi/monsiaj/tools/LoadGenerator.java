@@ -0,0 +1,378 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montsuqi.monsiaj.client.Protocol;
+import org.montsuqi.monsiaj.client.ServerErrorException;
+import org.montsuqi.monsiaj.client.metrics.LatencyHistogram;
+import org.montsuqi.monsiaj.client.metrics.Metrics;
+import org.montsuqi.monsiaj.client.metrics.RPCMetrics;
+import org.montsuqi.monsiaj.util.OptionParser;
+
+/**
+ * <p>
+ * Drives many sessions against a server without Swing, to size the server
+ * for a number of terminals.</p>
+ * <p>
+ * Each terminal is a thread with its own headless Protocol. It starts a
+ * session, calls get_window, replays the send_event calls of a script
+ * recorded with monsia.record_events(see EventRecorder) and ends the session.
+ * Like the real client, it fetches the screen definitions of new windows
+ * (unless -screen_cache, as with a warm cache) and the BLOBs in objectdata,
+ * and pings while the user thinks.</p>
+ * <p>
+ * The latency and errors of every step are reported with the throughput,
+ * followed by the RPC metrics of all sessions.</p>
+ * <pre>
+ * java -cp monsiaj.jar org.montsuqi.monsiaj.tools.LoadGenerator -uri=http://host:8000/rpc/ -user=u -password=p -terminals=100 script.jsonl...
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LogManager.getLogger(LoadGenerator.class);
+    private static final String[] PING_METHODS = {"list_downloads", "get_message"};
+
+    private static class Step {
+
+        private final String name;
+        private final LatencyHistogram latency;
+        private final AtomicLong errors;
+
+        Step(String name) {
+            this.name = name;
+            this.latency = new LatencyHistogram();
+            this.errors = new AtomicLong(0);
+        }
+    }
+
+    private final String uri;
+    private final String user;
+    private final String password;
+    private final int iterations;
+    private final int thinkScale;
+    private final long pingPeriod;
+    private final boolean screenCache;
+    private final boolean fetchBLOB;
+    private final Map<String, Step> steps;
+
+    LoadGenerator(OptionParser options) {
+        uri = options.getString("uri");
+        user = options.getString("user");
+        password = options.getString("password");
+        iterations = options.getInt("iterations");
+        thinkScale = options.getInt("think");
+        pingPeriod = options.getInt("ping");
+        screenCache = options.getBoolean("screen_cache");
+        fetchBLOB = options.getBoolean("blob");
+        steps = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * <p>
+     * Reads a script, one JSON object per line. Blank lines are
+     * skipped.</p>
+     */
+    static List<JSONObject> readScript(File file) throws IOException {
+        List<JSONObject> script = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                script.add(new JSONObject(line));
+            }
+        }
+        return script;
+    }
+
+    private Step getStep(String name) {
+        return steps.computeIfAbsent(name, Step::new);
+    }
+
+    private interface Call<T> {
+
+        T call() throws IOException, JSONException;
+    }
+
+    /**
+     * <p>
+     * Runs <var>call</var> as a step named <var>name</var>. Errors are
+     * counted and thrown.</p>
+     */
+    private <T> T timed(String name, Call<T> call) throws IOException, JSONException {
+        long st = System.currentTimeMillis();
+        try {
+            T result = call.call();
+            getStep(name).latency.record(System.currentTimeMillis() - st);
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            getStep(name).errors.incrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * <p>
+     * Runs one terminal. Errors of a step are logged and the next step is
+     * run, unless the server has ended the session.</p>
+     */
+    void runTerminal(int no, List<JSONObject> script) {
+        Set<String> windows = new HashSet<>();
+        Protocol protocol;
+        try {
+            protocol = new Protocol(uri, user, password);
+            protocol.setHeadless(true);
+            timed("start_session", () -> {
+                protocol.getServerInfo();
+                protocol.startSession();
+                return null;
+            });
+            JSONObject stack = timed("get_window", () -> protocol.getWindow());
+            update(protocol, stack, windows);
+        } catch (Exception ex) {
+            logger.warn("terminal " + no + " cannot start " + ex.getMessage());
+            return;
+        }
+        try {
+            for (int i = 0; i < iterations; i++) {
+                for (JSONObject step : script) {
+                    think(protocol, step.optLong("think", 0) * thinkScale / 100);
+                    try {
+                        runStep(protocol, step, windows);
+                    } catch (ServerErrorException ex) {
+                        throw ex;
+                    } catch (IOException | JSONException ex) {
+                        logger.warn("terminal " + no + " " + step.optString("method") + " " + ex.getMessage());
+                    }
+                }
+            }
+            timed("end_session", () -> {
+                protocol.endSession();
+                return null;
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            logger.warn("terminal " + no + " aborted " + ex.getMessage());
+        }
+    }
+
+    private void runStep(Protocol protocol, JSONObject step, Set<String> windows) throws IOException, JSONException {
+        String method = step.getString("method");
+        switch (method) {
+            case "send_event":
+                JSONObject params = new JSONObject();
+                params.put("event_data", step.getJSONObject("event_data"));
+                JSONObject stack = timed(method, () -> protocol.sendEvent(params));
+                update(protocol, stack, windows);
+                break;
+            case "ping":
+                ping(protocol);
+                break;
+            case "get_blob":
+                getBLOB(protocol, step.getString("oid"));
+                break;
+            default:
+                throw new JSONException("unknown method " + method);
+        }
+    }
+
+    /**
+     * <p>
+     * Does what the client does with a new screen: fetches the definitions of
+     * new windows and the BLOBs of widgets.</p>
+     */
+    private void update(Protocol protocol, JSONObject stack, Set<String> windows) throws IOException, JSONException {
+        JSONArray list = stack.getJSONObject("window_data").getJSONArray("windows");
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject w = list.getJSONObject(i);
+            String name = w.getString("window");
+            if (!screenCache && windows.add(name)) {
+                timed("get_screen_define", () -> protocol.getScreenDefine(name));
+            }
+            if (fetchBLOB && w.has("screen_data")) {
+                List<String> oids = new ArrayList<>();
+                findObjects(w.get("screen_data"), oids);
+                for (String oid : oids) {
+                    getBLOB(protocol, oid);
+                }
+            }
+        }
+    }
+
+    private static void findObjects(Object obj, List<String> oids) {
+        if (obj instanceof JSONObject) {
+            JSONObject o = (JSONObject) obj;
+            for (Iterator<String> i = o.keys(); i.hasNext();) {
+                String key = i.next();
+                Object child = o.get(key);
+                if (key.equals("objectdata") && child instanceof String) {
+                    String oid = (String) child;
+                    if (!oid.isEmpty() && !oid.equals("0")) {
+                        oids.add(oid);
+                    }
+                } else {
+                    findObjects(child, oids);
+                }
+            }
+        } else if (obj instanceof JSONArray) {
+            JSONArray a = (JSONArray) obj;
+            for (int i = 0; i < a.length(); i++) {
+                findObjects(a.get(i), oids);
+            }
+        }
+    }
+
+    private void getBLOB(Protocol protocol, String oid) throws IOException, JSONException {
+        timed("get_blob", () -> protocol.getBLOB(oid, new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    private void ping(Protocol protocol) throws IOException, JSONException {
+        timed("ping", () -> {
+            Object[] results = protocol.batch(PING_METHODS, null);
+            for (Object result : results) {
+                if (result instanceof JSONException) {
+                    throw (JSONException) result;
+                }
+            }
+            return results;
+        });
+    }
+
+    /**
+     * <p>
+     * Waits for <var>ms</var>, pinging every -ping ms.</p>
+     */
+    private void think(Protocol protocol, long ms) throws InterruptedException, IOException {
+        long now = System.currentTimeMillis();
+        long end = now + ms;
+        while (now < end) {
+            long next = pingPeriod > 0 ? Math.min(end, now + pingPeriod) : end;
+            Thread.sleep(next - now);
+            now = System.currentTimeMillis();
+            if (pingPeriod > 0 && now < end) {
+                try {
+                    ping(protocol);
+                } catch (ServerErrorException ex) {
+                    throw ex;
+                } catch (IOException | JSONException ex) {
+                    logger.warn("ping " + ex.getMessage());
+                }
+                now = System.currentTimeMillis();
+            }
+        }
+    }
+
+    void report(long elapsed, int terminals) {
+        double sec = Math.max(elapsed, 1) / 1000.0;
+        System.out.println("terminals:" + terminals + " elapsed:" + elapsed + "ms");
+        long total = 0;
+        long errors = 0;
+        for (Step step : new TreeMap<>(steps).values()) {
+            long n = step.latency.getCount();
+            total += n;
+            errors += step.errors.get();
+            System.out.println(String.format("%-18s %s errors:%d throughput:%.2f/s",
+                    step.name, step.latency, step.errors.get(), n / sec));
+        }
+        System.out.println(String.format("%-18s count:%d errors:%d error_rate:%.2f%% throughput:%.2f/s",
+                "total", total, errors, total + errors == 0 ? 0.0 : errors * 100.0 / (total + errors), total / sec));
+        System.out.println("---- rpc");
+        for (Map.Entry<String, RPCMetrics> e : new TreeMap<>(Metrics.getRPCMetrics()).entrySet()) {
+            System.out.println(String.format("%-18s %s", e.getKey(), e.getValue()));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        OptionParser options = new OptionParser();
+        options.add("uri", "auth uri of the server", "http://localhost:8000/rpc/");
+        options.add("user", "user name", "");
+        options.add("password", "password", "");
+        options.add("terminals", "number of terminals", 10);
+        options.add("iterations", "times each terminal runs its script", 1);
+        options.add("rampup", "ms to start all terminals in", 0);
+        options.add("think", "percentage of the recorded think time", 100);
+        options.add("ping", "ping period in ms while thinking, 0 for no ping", 7000);
+        options.add("screen_cache", "do not fetch screen definitions, as with a warm cache", false);
+        options.add("blob", "fetch the BLOBs of widgets", true);
+        String[] files = options.parse(LoadGenerator.class.getName(), args);
+        if (files.length == 0) {
+            System.out.println(options.usage("USAGE: LoadGenerator <option(s)> script.jsonl..."));
+            return;
+        }
+
+        List<List<JSONObject>> scripts = new ArrayList<>();
+        for (String file : files) {
+            scripts.add(readScript(new File(file)));
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        int terminals = options.getInt("terminals");
+        long rampup = options.getInt("rampup");
+        CountDownLatch done = new CountDownLatch(terminals);
+        long st = System.currentTimeMillis();
+        for (int i = 0; i < terminals; i++) {
+            final int no = i;
+            final List<JSONObject> script = scripts.get(i % scripts.size());
+            Thread t = new Thread(() -> {
+                try {
+                    generator.runTerminal(no, script);
+                } finally {
+                    done.countDown();
+                }
+            }, "monsia-terminal-" + i);
+            t.start();
+            if (rampup > 0 && terminals > 1) {
+                Thread.sleep(rampup / (terminals - 1));
+            }
+        }
+        done.await();
+        generator.report(System.currentTimeMillis() - st, terminals);
+        System.exit(0);
+    }
+}
@@ -4,11 +4,14 @@
  */
 package org.montsuqi.monsiaj.tools;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
 import org.montsuqi.monsiaj.monsia.Interface;
+import org.montsuqi.monsiaj.monsia.InterfaceSnapshot;
+import org.montsuqi.monsiaj.monsia.WidgetInfo;
 import org.montsuqi.monsiaj.widgets.TopWindow;
 import org.montsuqi.monsiaj.widgets.Window;
 
@@ -18,12 +21,42 @@ import org.montsuqi.monsiaj.widgets.Window;
  */
 public class TestGlade {
 
+    /**
+     * <p>
+     * Shows the window of a glade file.</p>
+     * <p>
+     * Also reports the time to parse the file, and the time to load the same
+     * widget tree from an InterfaceSnapshot. The second argument is the
+     * number of iterations, the times are averaged.</p>
+     */
     public static void main(String[] args) {
         try {
             TopWindow topWindow = new TopWindow();
             File gladeFile = new File(args[0]);
-            InputStream input = new FileInputStream(gladeFile);
-            Interface xml = Interface.parseInput(input);
+            int count = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+            byte[] data = Files.readAllBytes(gladeFile.toPath());
+
+            List<WidgetInfo> roots = null;
+            long t1 = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                roots = Interface.parseRoots(new ByteArrayInputStream(data), true);
+            }
+            long t2 = System.nanoTime();
+            byte[] snapshot = InterfaceSnapshot.toByteArray(roots);
+            long t3 = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                roots = InterfaceSnapshot.read(snapshot);
+            }
+            long t4 = System.nanoTime();
+            Interface xml = new Interface(roots);
+            long t5 = System.nanoTime();
+
+            System.out.println("xml:" + data.length + "bytes snapshot:" + snapshot.length + "bytes");
+            System.out.println("parse:" + (t2 - t1) / count / 1000 + "us "
+                    + "snapshot_write:" + (t3 - t2) / 1000 + "us "
+                    + "snapshot_load:" + (t4 - t3) / count / 1000 + "us "
+                    + "build:" + (t5 - t4) / 1000 + "us");
+
             String fname = gladeFile.getName();
             Window window = (Window)xml.getWidget(fname.substring(0, fname.indexOf(".")));
             topWindow.setXml(xml);
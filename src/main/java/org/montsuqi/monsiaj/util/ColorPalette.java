@@ -0,0 +1,155 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.util;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>
+ * A palette of decoded colors shared by all widgets.</p>
+ * <p>
+ * A color is referred to by a small index, so that widgets can keep the
+ * colors of their cells in primitive arrays. Each color string is decoded
+ * with SafeColorDecoder once, and equal colors share one index and one Color.
+ * Index BLACK and WHITE always exist. The palette only grows; when it is full,
+ * new colors get the fallback index.</p>
+ * <p>
+ * The darker variant of a color, used for selected rows, is computed once per
+ * index by darker().</p>
+ */
+public class ColorPalette {
+
+    private static final Logger logger = LogManager.getLogger(ColorPalette.class);
+    private static final int MAX_COLORS = Short.MAX_VALUE;
+    private static final int DARKEN = 0x30;
+
+    public static final short BLACK = 0;
+    public static final short WHITE = 1;
+
+    private static final Map<String, Short> specs = new HashMap<>();
+    private static final Map<Color, Short> indices = new HashMap<>();
+
+    private static volatile Color[] colors = new Color[16];
+    // index -> index of the darker color, -1 if not computed yet
+    private static volatile short[] darker = newDarker(16);
+    private static int size = 0;
+
+    static {
+        intern(Color.BLACK);
+        intern(Color.WHITE);
+    }
+
+    private ColorPalette() {
+    }
+
+    /**
+     * <p>
+     * Returns the index of the color <var>spec</var>, or <var>fallback</var>
+     * when <var>spec</var> is null or cannot be decoded.</p>
+     */
+    public static synchronized short intern(String spec, short fallback) {
+        if (spec == null) {
+            return fallback;
+        }
+        Short index = specs.get(spec);
+        if (index == null) {
+            Color color = SafeColorDecoder.decode(spec);
+            index = color == null ? -1 : intern(color);
+            specs.put(spec, index);
+        }
+        return index < 0 ? fallback : index;
+    }
+
+    /**
+     * <p>
+     * Returns the index of <var>color</var>, or -1 when the palette is
+     * full.</p>
+     */
+    public static synchronized short intern(Color color) {
+        Short index = indices.get(color);
+        if (index != null) {
+            return index;
+        }
+        if (size >= MAX_COLORS) {
+            logger.warn("color palette is full");
+            return -1;
+        }
+        Color[] next = colors;
+        if (size == next.length) {
+            next = Arrays.copyOf(next, Math.min(next.length * 2, MAX_COLORS));
+            short[] d = newDarker(next.length);
+            System.arraycopy(darker, 0, d, 0, size);
+            darker = d;
+        }
+        next[size] = color;
+        // publish the new entry to get()
+        colors = next;
+        indices.put(color, (short) size);
+        return (short) size++;
+    }
+
+    /**
+     * <p>
+     * Returns the color of <var>index</var>.</p>
+     */
+    public static Color get(short index) {
+        return colors[index];
+    }
+
+    /**
+     * <p>
+     * Returns the index of <var>index</var> with each component reduced by
+     * 0x30, or <var>index</var> itself when the palette is full.</p>
+     */
+    public static short darker(short index) {
+        short d = darker[index];
+        return d >= 0 ? d : computeDarker(index);
+    }
+
+    private static synchronized short computeDarker(short index) {
+        if (darker[index] >= 0) {
+            return darker[index];
+        }
+        Color c = colors[index];
+        short d = intern(new Color(
+                Math.max(c.getRed() - DARKEN, 0),
+                Math.max(c.getGreen() - DARKEN, 0),
+                Math.max(c.getBlue() - DARKEN, 0)));
+        if (d < 0) {
+            d = index;
+        }
+        darker[index] = d;
+        return d;
+    }
+
+    private static short[] newDarker(int length) {
+        short[] d = new short[length];
+        Arrays.fill(d, (short) -1);
+        return d;
+    }
+}
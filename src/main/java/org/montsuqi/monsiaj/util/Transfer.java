@@ -0,0 +1,232 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * A class that copies a stream in bulk and measures the throughput.</p>
+ * <p>
+ * Copying is done with a large buffer reused per thread. One instance
+ * represents one transfer and holds its byte count and elapsed time.</p>
+ */
+public class Transfer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PRESIZE = 64 * 1024 * 1024;
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * <p>
+     * Receives the progress of a transfer.</p>
+     */
+    public interface Listener {
+
+        /**
+         * @param bytes bytes transferred so far.
+         * @param total expected bytes, or -1 if unknown.
+         */
+        void progress(long bytes, long total);
+    }
+
+    private final String name;
+    private long bytes;
+    private long startTime;
+    private long endTime;
+    private Listener listener;
+    private long expected;
+    private int retries;
+
+    public Transfer(String name) {
+        this.name = name;
+        this.bytes = 0;
+        this.startTime = System.currentTimeMillis();
+        this.endTime = this.startTime;
+        this.listener = null;
+        this.expected = -1;
+        this.retries = 0;
+    }
+
+    /**
+     * <p>
+     * Sets a listener called after every buffer copied.</p>
+     *
+     * @param listener the listener, or null.
+     * @param total expected bytes, or -1 if unknown.
+     */
+    public void setListener(Listener listener, long total) {
+        this.listener = listener;
+        this.expected = total;
+    }
+
+    private void count(int n) {
+        bytes += n;
+        if (listener != null) {
+            listener.progress(bytes, expected);
+        }
+    }
+
+    /**
+     * <p>
+     * Copies all of <var>in</var> to <var>out</var>. Neither stream is
+     * closed.</p>
+     *
+     * @param in source stream.
+     * @param out destination stream.
+     * @return number of bytes copied.
+     * @throws IOException on read/write errors.
+     */
+    public long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = BUFFER.get();
+        long total = 0;
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+                total += n;
+                count(n);
+            }
+        } finally {
+            endTime = System.currentTimeMillis();
+        }
+        return total;
+    }
+
+    /**
+     * <p>
+     * Reads all of <var>in</var> into memory. The buffer is sized from
+     * <var>contentLength</var> up front when it is known.</p>
+     *
+     * @param in source stream.
+     * @param contentLength expected length, or -1 if unknown.
+     * @return bytes read.
+     * @throws IOException on read errors.
+     */
+    public ByteArrayOutputStream readAll(InputStream in, long contentLength) throws IOException {
+        int size = BUFFER_SIZE;
+        if (contentLength > 0) {
+            size = (int) Math.min(contentLength, MAX_PRESIZE);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        copy(in, out);
+        return out;
+    }
+
+    /**
+     * <p>
+     * Writes all of <var>in</var> to <var>file</var> through a FileChannel,
+     * replacing its content.</p>
+     *
+     * @param in source stream.
+     * @param file destination file.
+     * @return number of bytes written.
+     * @throws IOException on read/write errors.
+     */
+    public long copy(InputStream in, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return copy(in, channel);
+        }
+    }
+
+    /**
+     * <p>
+     * Writes all of <var>in</var> to <var>channel</var> from its current
+     * position. The channel is not closed.</p>
+     *
+     * @param in source stream.
+     * @param channel destination channel.
+     * @return number of bytes written.
+     * @throws IOException on read/write errors.
+     */
+    public long copy(InputStream in, FileChannel channel) throws IOException {
+        byte[] buf = BUFFER.get();
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        long total = 0;
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bb.clear();
+                bb.limit(n);
+                while (bb.hasRemaining()) {
+                    channel.write(bb);
+                }
+                total += n;
+                count(n);
+            }
+        } finally {
+            endTime = System.currentTimeMillis();
+        }
+        return total;
+    }
+
+    /**
+     * <p>
+     * Records that the transfer was resumed or restarted.</p>
+     */
+    public void retried() {
+        retries++;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedTime() {
+        return endTime - startTime;
+    }
+
+    public long getBytesPerSecond() {
+        long elapsed = getElapsedTime();
+        if (elapsed <= 0) {
+            return bytes * 1000;
+        }
+        return bytes * 1000 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return name + " bytes:" + bytes + " time:" + getElapsedTime() + "ms rate:" + getBytesPerSecond() + "B/s retries:" + retries;
+    }
+}
@@ -116,6 +116,13 @@ public class FileChooserButton extends JComponent {
         return bytes;
     }
 
+    /**
+     * <p>Returns the selected file, or null.</p>
+     */
+    public File getFile() {
+        return file;
+    }
+
     public void setFile(File file) {
         this.file = file;
         if (file != null) {
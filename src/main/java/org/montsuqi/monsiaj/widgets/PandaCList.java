@@ -24,7 +24,6 @@ package org.montsuqi.monsiaj.widgets;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
-import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
@@ -33,27 +32,30 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.util.BitSet;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
 import javax.swing.table.TableColumnModel;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.montsuqi.monsiaj.util.SafeColorDecoder;
+import org.montsuqi.monsiaj.util.ColorPalette;
 
-public class PandaCList extends JTable {
+public class PandaCList extends JTable implements PandaCellRenderer.CellColors {
 
     protected static final Logger logger = LogManager.getLogger(PandaCList.class);
 
     public static final int SELECTION_MODE_SINGLE = 1;
     public static final int SELECTION_MODE_MULTI = 2;
 
-    private Color[] bgColors;
-    private Color[] fgColors;
+    // ColorPalette indices
+    private short[] bgColors;
+    private short[] fgColors;
     private boolean[] selection;
+    // rows whose selection the user has changed since markSelectionClean()
+    private final BitSet changedSelection;
     private int mode;
 
     /* mouse selection */
@@ -62,8 +64,8 @@ public class PandaCList extends JTable {
     private boolean msDragged;
     private boolean msValue;
 
-    private Color selectionBGColor;
-    private Color selectionFGColor;
+    private final short selectionBGColor;
+    private final short selectionFGColor;
 
     public void addChangeListener(ChangeListener l) {
         listenerList.add(ChangeListener.class, l);
@@ -81,16 +83,49 @@ public class PandaCList extends JTable {
         this.mode = mode;
     }
 
-    public void setBGColors(Color[] bgColors) {
+    /**
+     * <p>
+     * Sets the background colors of the rows as ColorPalette indices.</p>
+     */
+    public void setBGColors(short[] bgColors) {
         this.bgColors = bgColors;
     }
 
-    public void setFGColors(Color[] fgColors) {
+    /**
+     * <p>
+     * Sets the foreground colors of the rows as ColorPalette indices.</p>
+     */
+    public void setFGColors(short[] fgColors) {
         this.fgColors = fgColors;
     }
 
     public void setSelection(boolean[] s) {
         this.selection = s;
+        changedSelection.clear();
+    }
+
+    private void select(int row, boolean value) {
+        if (selection[row] != value) {
+            selection[row] = value;
+            changedSelection.flip(row);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the last row whose selection has been changed since
+     * markSelectionClean(), or -1.</p>
+     */
+    public int getLastChangedSelection() {
+        return changedSelection.length() - 1;
+    }
+
+    /**
+     * <p>
+     * Forgets the changes of the selection, after it has been sent.</p>
+     */
+    public void markSelectionClean() {
+        changedSelection.clear();
     }
 
     public boolean[] getSelection() {
@@ -99,6 +134,7 @@ public class PandaCList extends JTable {
 
     public PandaCList() {
         super();
+        changedSelection = new BitSet();
         setFocusable(true);
         setAutoResizeMode(AUTO_RESIZE_OFF);
         setAutoscrolls(true);
@@ -110,19 +146,11 @@ public class PandaCList extends JTable {
             this.setRowHeight(rowheight);
         }
 
-        String strColor = System.getProperty("monsia.pandaclist.selection_bg_color");
-        if (strColor != null) {
-            selectionBGColor = SafeColorDecoder.decode(strColor);
-        } else {
-            selectionBGColor = new Color(0x33, 0x66, 0xFF);
-        }
-
-        strColor = System.getProperty("monsia.pandaclist.selection_fg_color");
-        if (strColor != null) {
-            selectionFGColor = SafeColorDecoder.decode(strColor);
-        } else {
-            selectionFGColor = new Color(0xFF, 0xFF, 0xFF);
-        }
+        selectionBGColor = ColorPalette.intern(System.getProperty("monsia.pandaclist.selection_bg_color"),
+                ColorPalette.intern(new Color(0x33, 0x66, 0xFF)));
+        selectionFGColor = ColorPalette.intern(System.getProperty("monsia.pandaclist.selection_fg_color"),
+                ColorPalette.WHITE);
+        setDefaultRenderer(Object.class, new PandaCellRenderer());
 
         if (System.getProperty("monsia.widget.pandaclist.showgrid") == null) {
             this.setShowGrid(false);
@@ -192,7 +220,7 @@ public class PandaCList extends JTable {
                     return;
                 }
                 if (row == msStartRow) {
-                    selection[row] = msValue;
+                    select(row, msValue);
                     return;
                 }
                 if (row == msPrevRow) {
@@ -204,15 +232,15 @@ public class PandaCList extends JTable {
 
                 if (row > msStartRow) {
                     if (row > prev) {
-                        selection[row] = msValue;
+                        select(row, msValue);
                     } else {
-                        selection[prev] = !msValue;
+                        select(prev, !msValue);
                     }
                 } else {
                     if (row < prev) {
-                        selection[row] = msValue;
+                        select(row, msValue);
                     } else {
-                        selection[prev] = !msValue;
+                        select(prev, !msValue);
                     }
                 }
                 PandaCList.this.resizeAndRepaint();
@@ -225,12 +253,12 @@ public class PandaCList extends JTable {
     }
 
     public void toggleSelection(int row) {
-        selection[row] = !selection[row];
+        select(row, !selection[row]);
     }
 
     public void singleSelection(int row) {
         for (int i = 0; i < selection.length; i++) {
-            selection[i] = i == row;
+            select(i, i == row);
         }
     }
 
@@ -265,36 +293,29 @@ public class PandaCList extends JTable {
     }
 
     @Override
-    public Component prepareRenderer(
-            TableCellRenderer renderer, int row, int column) {
-
-        Component c = super.prepareRenderer(renderer, row, column);
-        if (fgColors != null && row < fgColors.length && fgColors[row] != null) {
-            c.setForeground(fgColors[row]);
-        } else {
-            c.setForeground(Color.BLACK);
+    public short getCellForeground(int row, int column) {
+        if (isSelectedRow(row)) {
+            return selectionFGColor;
         }
-        if (selection[row]) {
-            c.setBackground(this.selectionBGColor);
-            c.setForeground(this.selectionFGColor);
-        } else {
-            if (bgColors != null && row < bgColors.length && bgColors[row] != null) {
-                if (this.isRowSelected(row)) {
-                    int r = bgColors[row].getRed();
-                    int g = bgColors[row].getGreen();
-                    int b = bgColors[row].getBlue();
-                    r = r - 0x30 < 0 ? 0 : r - 0x30;
-                    g = g - 0x30 < 0 ? 0 : g - 0x30;
-                    b = b - 0x30 < 0 ? 0 : b - 0x30;
-                    c.setBackground(new Color(r, g, b));
-                } else {
-                    c.setBackground(bgColors[row]);
-                }
-            } else {
-                c.setBackground(Color.white);
-            }
+        if (fgColors != null && row < fgColors.length) {
+            return fgColors[row];
+        }
+        return ColorPalette.BLACK;
+    }
+
+    @Override
+    public short getCellBackground(int row, int column) {
+        if (isSelectedRow(row)) {
+            return selectionBGColor;
+        }
+        if (bgColors != null && row < bgColors.length) {
+            return isRowSelected(row) ? ColorPalette.darker(bgColors[row]) : bgColors[row];
         }
-        return c;
+        return ColorPalette.WHITE;
+    }
+
+    private boolean isSelectedRow(int row) {
+        return selection != null && row < selection.length && selection[row];
     }
 
     @Override
@@ -334,21 +355,18 @@ public class PandaCList extends JTable {
         container.setLayout(new BorderLayout(10, 5));
 
         final PandaCList clist = new PandaCList();
-        TableColumnModel columnModel = clist.getColumnModel();
-        columnModel.addColumn(new TableColumn());
-        columnModel.addColumn(new TableColumn());
-        columnModel.addColumn(new TableColumn());
-
-        DefaultTableModel tableModel = (DefaultTableModel) clist.getModel();
-        tableModel.setColumnCount(3);
-
-        for (int i = 0; i < 50; i++) {
-            Object[] rowData = new String[3];
-            rowData[0] = Integer.toString(i);
-            rowData[1] = Integer.toString(i + 1);
-            rowData[2] = Integer.toString(i + 2);
-            tableModel.addRow(rowData);
+        PandaCListModel tableModel = new PandaCListModel(3);
+        clist.setModel(tableModel);
+
+        String[][] rows = new String[50][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new String[3];
+            rows[i][0] = Integer.toString(i);
+            rows[i][1] = Integer.toString(i + 1);
+            rows[i][2] = Integer.toString(i + 2);
         }
+        tableModel.replaceAll(rows);
+        clist.setSelection(new boolean[rows.length]);
 
         clist.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
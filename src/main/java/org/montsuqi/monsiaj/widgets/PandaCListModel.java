@@ -0,0 +1,155 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.widgets;
+
+import java.util.Arrays;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * <p>
+ * The table model of PandaCList.</p>
+ * <p>
+ * Cells are kept in one String array per column, which grows but never
+ * shrinks, and the whole content is replaced at once with replaceAll(). A
+ * replacement fires one event: rows updated when the row count is unchanged,
+ * otherwise data changed. The columns are fixed when the model is made, so
+ * the column model of the table is never rebuilt.</p>
+ */
+public class PandaCListModel extends AbstractTableModel {
+
+    /**
+     * <p>
+     * Writes the cells of one row for replaceAll().</p>
+     */
+    public interface RowWriter {
+
+        /**
+         * @param row the row index.
+         * @param values the cells of the row, to be filled. the array is
+         * reused for every row.
+         */
+        void write(int row, String[] values);
+    }
+
+    private final String[][] columns;
+    private final String[] keys;
+    private final String[] values;
+    private int rowCount;
+
+    public PandaCListModel(int columnCount) {
+        columns = new String[columnCount][];
+        keys = new String[columnCount];
+        values = new String[columnCount];
+        for (int j = 0; j < columnCount; j++) {
+            columns[j] = new String[0];
+            keys[j] = "column" + (j + 1);
+        }
+        rowCount = 0;
+    }
+
+    /**
+     * <p>
+     * Returns the key of column <var>column</var> in the screen data,
+     * "column1" for the first one.</p>
+     */
+    public String getColumnKey(int column) {
+        return keys[column];
+    }
+
+    /**
+     * <p>
+     * Replaces all rows with <var>n</var> rows written by
+     * <var>writer</var>.</p>
+     */
+    public void replaceAll(int n, RowWriter writer) {
+        int prev = rowCount;
+        for (int j = 0; j < columns.length; j++) {
+            if (columns[j].length < n) {
+                columns[j] = Arrays.copyOf(columns[j], Math.max(n, columns[j].length * 3 / 2));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(values, null);
+            writer.write(i, values);
+            for (int j = 0; j < columns.length; j++) {
+                columns[j][i] = values[j];
+            }
+        }
+        if (n < prev) {
+            // release the cells of the removed rows
+            for (String[] column : columns) {
+                Arrays.fill(column, n, prev, null);
+            }
+        }
+        rowCount = n;
+        if (n == prev) {
+            if (n > 0) {
+                fireTableRowsUpdated(0, n - 1);
+            }
+        } else {
+            fireTableDataChanged();
+        }
+    }
+
+    /**
+     * <p>
+     * Replaces all rows with <var>rows</var>, each an array of the cells of a
+     * row.</p>
+     */
+    public void replaceAll(final String[][] rows) {
+        replaceAll(rows.length, (int row, String[] v) -> {
+            System.arraycopy(rows[row], 0, v, 0, Math.min(v.length, rows[row].length));
+        });
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return columns[column][row];
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        columns[column][row] = value == null ? null : value.toString();
+        fireTableCellUpdated(row, column);
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+}
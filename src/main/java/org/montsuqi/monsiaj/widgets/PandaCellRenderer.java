@@ -0,0 +1,90 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.widgets;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import javax.swing.JTable;
+import javax.swing.UIManager;
+import javax.swing.border.Border;
+import javax.swing.table.DefaultTableCellRenderer;
+import org.montsuqi.monsiaj.util.ColorPalette;
+
+/**
+ * <p>
+ * The cell renderer of PandaCList and PandaTable.</p>
+ * <p>
+ * The table gives the colors of a cell as ColorPalette indices, so that
+ * painting a cell allocates nothing, and the properties of the label are only
+ * set when they differ from those of the previous cell.</p>
+ */
+class PandaCellRenderer extends DefaultTableCellRenderer {
+
+    /**
+     * <p>
+     * A table whose cells are painted by PandaCellRenderer.</p>
+     */
+    interface CellColors {
+
+        short getCellForeground(int row, int column);
+
+        short getCellBackground(int row, int column);
+    }
+
+    private Border focusBorder;
+
+    PandaCellRenderer() {
+        super();
+        focusBorder = UIManager.getBorder("Table.focusCellHighlightBorder");
+    }
+
+    @Override
+    public void updateUI() {
+        super.updateUI();
+        focusBorder = UIManager.getBorder("Table.focusCellHighlightBorder");
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+        CellColors colors = (CellColors) table;
+        Color fg = ColorPalette.get(colors.getCellForeground(row, column));
+        if (getForeground() != fg) {
+            setForeground(fg);
+        }
+        Color bg = ColorPalette.get(colors.getCellBackground(row, column));
+        if (getBackground() != bg) {
+            setBackground(bg);
+        }
+        Font font = table.getFont();
+        if (getFont() != font) {
+            setFont(font);
+        }
+        Border border = hasFocus && focusBorder != null ? focusBorder : noFocusBorder;
+        if (getBorder() != border) {
+            setBorder(border);
+        }
+        setValue(value);
+        return this;
+    }
+}
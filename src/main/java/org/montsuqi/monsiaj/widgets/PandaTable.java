@@ -12,67 +12,125 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.im.InputContext;
 import java.awt.im.InputSubset;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Locale;
 import javax.swing.*;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.TableCellEditor;
-import javax.swing.table.TableCellRenderer;
-import org.montsuqi.monsiaj.util.SafeColorDecoder;
+import org.montsuqi.monsiaj.util.ColorPalette;
 import org.montsuqi.monsiaj.util.SystemEnvironment;
 
-public class PandaTable extends JTable {
-
-    private class PandaTableModel extends DefaultTableModel {
+public class PandaTable extends JTable implements PandaCellRenderer.CellColors {
+
+    /**
+     * <p>
+     * The cells are kept in one String array per column and their colors as
+     * ColorPalette indices in short arrays of the same layout, so that
+     * updating and painting a cell allocates nothing.</p>
+     * <p>
+     * The model counts the non-empty cells of each row to know the last
+     * non-empty row, and remembers the cells edited by the user since the
+     * last markClean(). Cells stored by putCell() come from the server and
+     * are clean.</p>
+     */
+    private class PandaTableModel extends AbstractTableModel {
 
         private final String[] types;
         private final String[] titles;
+        private final String[] keys;
+        private int rows;
+        private int cols;
+        // [column][row]
+        private String[][] cells;
+        private short[][] fgColors;
+        private short[][] bgColors;
+        // non-empty cells of each row
+        private int[] filled;
+        private int lastFilledRow;
+        // row * cols + column
+        private final BitSet dirty;
 
         public PandaTableModel() {
             super();
 
-            this.setColumnCount(1);
-            this.setRowCount(1);
-
             types = new String[MAX_COLS];
             titles = new String[MAX_COLS];
+            keys = new String[MAX_COLS];
             for (int i = 0; i < MAX_COLS; i++) {
                 types[i] = "text";
                 titles[i] = "title" + i;
+                keys[i] = "column" + (i + 1);
             }
+            dirty = new BitSet();
+            resize(1, 1);
         }
 
-        public void setColumns(int cols) {
-            if (cols < MAX_COLS) {
-                this.setColumnCount(cols);
+        private void resize(int rows, int cols) {
+            this.rows = rows;
+            this.cols = cols;
+            cells = new String[cols][rows];
+            fgColors = new short[cols][rows];
+            bgColors = new short[cols][rows];
+            for (int j = 0; j < cols; j++) {
+                Arrays.fill(cells[j], "");
+                Arrays.fill(fgColors[j], ColorPalette.BLACK);
+                Arrays.fill(bgColors[j], ColorPalette.WHITE);
+            }
+            filled = new int[rows];
+            lastFilledRow = -1;
+            dirty.clear();
+        }
 
-            } else {
-                this.setColumnCount(MAX_COLS);
+        private void clearCells() {
+            for (String[] column : cells) {
+                Arrays.fill(column, "");
             }
-            setRows(this.getRowCount());
+            Arrays.fill(filled, 0);
+            lastFilledRow = -1;
+            dirty.clear();
         }
 
-        public void setRows(int rows) {
-            this.setRowCount(rows);
-            for (int i = 0; i < rows; i++) {
-                int cols = this.getColumnCount();
-                for (int j = 0; j < cols; j++) {
-                    this.setValueAt("", i, j);
+        private void store(int row, int col, String data) {
+            String old = cells[col][row];
+            cells[col][row] = data;
+            boolean wasFilled = old != null && !old.isEmpty();
+            boolean isFilled = data != null && !data.isEmpty();
+            if (isFilled && !wasFilled) {
+                filled[row]++;
+                if (row > lastFilledRow) {
+                    lastFilledRow = row;
+                }
+            } else if (wasFilled && !isFilled) {
+                filled[row]--;
+                while (lastFilledRow >= 0 && filled[lastFilledRow] == 0) {
+                    lastFilledRow--;
                 }
             }
         }
 
+        public void setColumns(int cols) {
+            resize(rows, cols < MAX_COLS ? cols : MAX_COLS);
+            fireTableStructureChanged();
+        }
+
+        public void setRows(int rows) {
+            resize(rows, cols);
+            fireTableDataChanged();
+        }
+
         public void setTypes(String[] types) {
             for (int i = 0; i < this.types.length && i < types.length; i++) {
                 this.types[i] = types[i];
             }
-            setColumns(this.getColumnCount());
+            clearCells();
+            fireTableStructureChanged();
         }
 
         public String[] getTypes() {
-            int cols = this.getColumnCount();
             String[] ret = new String[cols];
             System.arraycopy(this.types, 0, ret, 0, cols);
             return ret;
@@ -82,17 +140,67 @@ public class PandaTable extends JTable {
             for (int i = 0; i < this.titles.length && i < titles.length; i++) {
                 this.titles[i] = titles[i];
             }
-            setColumns(this.getColumnCount());
+            clearCells();
+            fireTableStructureChanged();
         }
 
         public void setRow(int row, String[] rowdata) {
-            if (0 <= row && row < this.getRowCount()) {
-                for (int i = 0; i < this.getColumnCount(); i++) {
+            if (0 <= row && row < rows) {
+                for (int i = 0; i < cols; i++) {
                     setValueAt(rowdata[i], row, i);
                 }
             }
         }
 
+        /**
+         * <p>
+         * Stores a cell without firing an event.</p>
+         *
+         * @return true if the cell has been changed.
+         */
+        boolean putCell(int row, int col, String data) {
+            if (row < 0 || row >= rows || col < 0 || col >= cols) {
+                return false;
+            }
+            dirty.clear(row * cols + col);
+            String[] column = cells[col];
+            if (data == null ? column[row] == null : data.equals(column[row])) {
+                return false;
+            }
+            store(row, col, data);
+            return true;
+        }
+
+        boolean isInRange(int row, int col) {
+            return 0 <= row && row < rows && 0 <= col && col < cols;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return cols;
+        }
+
+        @Override
+        public Object getValueAt(int row, int col) {
+            return cells[col][row];
+        }
+
+        @Override
+        public void setValueAt(Object value, int row, int col) {
+            String data = value == null ? null : value.toString();
+            String old = cells[col][row];
+            if (data == null ? old != null : !data.equals(old)) {
+                store(row, col, data);
+                dirty.set(row * cols + col);
+            }
+            fireTableCellUpdated(row, col);
+        }
+
         @Override
         public boolean isCellEditable(int row, int col) {
             return !this.types[col].equals("label");
@@ -110,8 +218,6 @@ public class PandaTable extends JTable {
 
     private final int MAX_COLS = 100;
 
-    private Color[][] fgColors;
-    private Color[][] bgColors;
     private final PandaTableModel model;
     private boolean enterPressed;
     private int changedRow;
@@ -165,6 +271,7 @@ public class PandaTable extends JTable {
 
         model = new PandaTableModel();
         this.setModel(model);
+        this.setDefaultRenderer(Object.class, new PandaCellRenderer());
 
         /*
          * magic number
@@ -307,15 +414,6 @@ public class PandaTable extends JTable {
 
     public void setRows(int rows) {
         model.setRows(rows);
-        int columns = model.getColumnCount();
-        fgColors = new Color[rows][columns];
-        bgColors = new Color[rows][columns];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                fgColors[i][j] = Color.BLACK;
-                bgColors[i][j] = Color.WHITE;
-            }
-        }
     }
 
     public int getColumns() {
@@ -324,15 +422,15 @@ public class PandaTable extends JTable {
 
     public void setColumns(int cols) {
         model.setColumns(cols);
-        int rows = model.getRowCount();
-        fgColors = new Color[rows][cols];
-        bgColors = new Color[rows][cols];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                fgColors[i][j] = Color.BLACK;
-                bgColors[i][j] = Color.WHITE;
-            }
-        }
+    }
+
+    /**
+     * <p>
+     * Returns the key of column <var>column</var> in the screen data,
+     * "column1" for the first one.</p>
+     */
+    public String getColumnKey(int column) {
+        return model.keys[column];
     }
 
     public void setTitles(String[] titles) {
@@ -347,49 +445,103 @@ public class PandaTable extends JTable {
         model.setTypes(types);
     }
 
-    public void setFGColor(int row, int column, String _color) {
-        if (0 <= row && row < model.getRowCount()
-                && 0 <= column && column < model.getColumnCount()) {
-            Color color = SafeColorDecoder.decode(_color);
-            fgColors[row][column] = color != null ? color : Color.BLACK;
+    /**
+     * <p>
+     * Sets the foreground color of a cell. An undecodable color is black, and
+     * the background color below white.</p>
+     *
+     * @return true if the color has been changed.
+     */
+    public boolean setFGColor(int row, int column, String _color) {
+        if (model.isInRange(row, column)) {
+            short index = ColorPalette.intern(_color, ColorPalette.BLACK);
+            if (model.fgColors[column][row] != index) {
+                model.fgColors[column][row] = index;
+                return true;
+            }
         }
+        return false;
     }
 
-    public void setBGColor(int row, int column, String _color) {
-        if (0 <= row && row < model.getRowCount()
-                && 0 <= column && column < model.getColumnCount()) {
-            Color color = SafeColorDecoder.decode(_color);
-            bgColors[row][column] = color != null ? color : Color.WHITE;
+    public boolean setBGColor(int row, int column, String _color) {
+        if (model.isInRange(row, column)) {
+            short index = ColorPalette.intern(_color, ColorPalette.WHITE);
+            if (model.bgColors[column][row] != index) {
+                model.bgColors[column][row] = index;
+                return true;
+            }
         }
+        return false;
     }
 
     public void setCell(int row, int col, String data) {
         model.setValueAt(data, row, col);
     }
 
+    /**
+     * <p>
+     * Stores a cell without notifying the listeners of the model. Call
+     * fireCellsUpdated() after the last one.</p>
+     *
+     * @return true if the cell has been changed.
+     */
+    public boolean putCell(int row, int col, String data) {
+        return model.putCell(row, col, data);
+    }
+
+    /**
+     * <p>
+     * Returns the index of the last row with a non-empty cell, or -1.</p>
+     */
+    public int getLastNonEmptyRow() {
+        return model.lastFilledRow;
+    }
+
+    /**
+     * <p>
+     * Returns the first cell edited since the last markClean() at or after
+     * <var>from</var>, or -1. A cell is numbered row * getColumns() +
+     * column.</p>
+     */
+    public int nextDirtyCell(int from) {
+        return model.dirty.nextSetBit(from);
+    }
+
+    /**
+     * <p>
+     * Forgets the edited cells, after they have been sent.</p>
+     */
+    public void markClean() {
+        model.dirty.clear();
+    }
+
+    /**
+     * <p>
+     * Notifies the listeners of the model that any cell may have been
+     * changed by putCell().</p>
+     */
+    public void fireCellsUpdated() {
+        if (model.getRowCount() > 0) {
+            model.fireTableRowsUpdated(0, model.getRowCount() - 1);
+        }
+    }
+
     @Override
     public Component prepareEditor(TableCellEditor editor, int row, int column) {
         Component c = super.prepareEditor(editor,row,column);
-        if (fgColors != null) {
-            c.setForeground(fgColors[row][column]);
-        }
-        if (bgColors != null) {
-            c.setBackground(bgColors[row][column]);
-        }
+        c.setForeground(ColorPalette.get(model.fgColors[column][row]));
+        c.setBackground(ColorPalette.get(model.bgColors[column][row]));
         return c;
     }
 
     @Override
-    public Component prepareRenderer(
-            TableCellRenderer renderer, int row, int column) {
-        Component c = super.prepareRenderer(renderer, row, column);
-        if (fgColors != null) {
-            c.setForeground(fgColors[row][column]);
-        }
-        if (bgColors != null) {
-            c.setBackground(bgColors[row][column]);
-        }
-        return c;
+    public short getCellForeground(int row, int column) {
+        return model.fgColors[column][row];
+    }
+
+    @Override
+    public short getCellBackground(int row, int column) {
+        return model.bgColors[column][row];
     }
 
     public static void main(String[] args) {
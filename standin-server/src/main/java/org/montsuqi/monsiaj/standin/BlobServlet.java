@@ -0,0 +1,149 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.standin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.UUID;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>
+ * The BLOB endpoint, sessions/&lt;session id&gt;/blob/ under the REST
+ * root.</p>
+ * <p>
+ * A posted BLOB is kept in memory for the session. A BLOB is looked up in
+ * the session first, then in the script. Objects never change, so the oid is
+ * the ETag, and a single range of bytes=N- or bytes=N-M is served as 206 for
+ * resumed downloads.</p>
+ */
+class BlobServlet extends StandinServlet {
+
+    BlobServlet(StandinServer server) {
+        super(server);
+    }
+
+    /**
+     * @return {session id, oid}, or null if the path is not a BLOB.
+     */
+    private static String[] parsePath(HttpServletRequest req) {
+        String path = req.getPathInfo();
+        if (path == null) {
+            return null;
+        }
+        String[] s = path.split("/", -1);
+        // "", "sessions", id, "blob", oid
+        if (s.length != 5 || !s[1].equals("sessions") || !s[3].equals("blob")) {
+            return null;
+        }
+        return new String[]{s[2], s[4]};
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        server.getThrottle().delay();
+        String[] path = parsePath(req);
+        SessionData session = path == null ? null : server.getSession(path[0]);
+        if (session == null || path[1].isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String oid = path[1];
+        byte[] data = session.getBLOB(oid);
+        if (data == null) {
+            File file = server.getScript().getBLOB(oid);
+            if (file != null) {
+                data = Files.readAllBytes(file.toPath());
+            }
+        }
+        if (data == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String etag = "\"" + oid + "\"";
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Accept-Ranges", "bytes");
+        if (etag.equals(req.getHeader("If-None-Match"))) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        String range = req.getHeader("Range");
+        String ifRange = req.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] r = parseRange(range, data.length);
+            if (r == null) {
+                resp.setHeader("Content-Range", "bytes */" + data.length);
+                resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader("Content-Range", "bytes " + r[0] + "-" + r[1] + "/" + data.length);
+            data = Arrays.copyOfRange(data, (int) r[0], (int) r[1] + 1);
+            writeBody(req, resp, "application/octet-stream", data, false);
+            return;
+        }
+        writeBody(req, resp, "application/octet-stream", data, true);
+    }
+
+    /**
+     * @return {first, last}, or null when the range cannot be satisfied.
+     */
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+        String[] s = range.substring("bytes=".length()).split("-", -1);
+        try {
+            long first = Long.parseLong(s[0].trim());
+            long last = length - 1;
+            if (s.length > 1 && !s[1].trim().isEmpty()) {
+                last = Math.min(last, Long.parseLong(s[1].trim()));
+            }
+            if (first >= length || first > last) {
+                return null;
+            }
+            return new long[]{first, last};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String[] path = parsePath(req);
+        SessionData session = path == null ? null : server.getSession(path[0]);
+        if (session == null || !path[1].isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        byte[] data = readBody(req);
+        server.getThrottle().delay();
+        String oid = UUID.randomUUID().toString();
+        session.putBLOB(oid, data);
+        resp.setHeader("x-blob-id", oid);
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+}
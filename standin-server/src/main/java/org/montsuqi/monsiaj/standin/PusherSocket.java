@@ -0,0 +1,97 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.standin;
+
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * A connection to the pusher endpoint. It answers subscribe commands as the
+ * pusher of ginbee does and sends the events given to
+ * StandinServer.push().</p>
+ */
+@WebSocket
+public class PusherSocket {
+
+    private static final Logger logger = LogManager.getLogger(PusherSocket.class);
+
+    private final StandinServer server;
+    private Session session;
+    private String sessionId;
+
+    PusherSocket(StandinServer server) {
+        this.server = server;
+    }
+
+    @OnWebSocketConnect
+    public void onConnect(Session session) {
+        this.session = session;
+    }
+
+    @OnWebSocketMessage
+    public void onMessage(String message) {
+        JSONObject reply = new JSONObject();
+        try {
+            JSONObject obj = new JSONObject(message);
+            reply.put("req.id", obj.optString("req.id"));
+            if (!"subscribe".equals(obj.optString("command"))) {
+                reply.put("command", "error");
+            } else {
+                if (obj.has("session_id")) {
+                    sessionId = obj.getString("session_id");
+                    server.subscribe(this);
+                }
+                reply.put("command", "subscribed");
+                reply.put("sub.id", UUID.randomUUID().toString());
+            }
+        } catch (JSONException ex) {
+            logger.info("broken pusher command " + message);
+            reply.put("command", "error");
+        }
+        send(reply.toString());
+    }
+
+    @OnWebSocketClose
+    public void onClose(int statusCode, String reason) {
+        server.unsubscribe(this);
+    }
+
+    String getSessionId() {
+        return sessionId;
+    }
+
+    void send(String text) {
+        if (session != null && session.isOpen()) {
+            session.getRemote().sendStringByFuture(text);
+        }
+    }
+}
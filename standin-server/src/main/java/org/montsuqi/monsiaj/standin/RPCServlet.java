@@ -0,0 +1,186 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.standin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * The JSON-RPC 2.0 endpoints, both the auth endpoint(/rpc/) and the
+ * application endpoint(/rpc/app). Batch requests are supported.</p>
+ */
+class RPCServlet extends StandinServlet {
+
+    private static final Logger logger = LogManager.getLogger(RPCServlet.class);
+
+    private static final int METHOD_NOT_FOUND = -32601;
+    private static final int INVALID_PARAMS = -32602;
+    private static final int INVALID_SESSION = -32000;
+
+    private static class RPCError extends Exception {
+
+        private final int code;
+
+        RPCError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    RPCServlet(StandinServer server) {
+        super(server);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        server.getThrottle().delay();
+        String text = new String(readBody(req), StandardCharsets.UTF_8).trim();
+        String res;
+        try {
+            if (text.startsWith("[")) {
+                JSONArray calls = new JSONArray(text);
+                StringBuilder sb = new StringBuilder("[");
+                for (int i = 0; i < calls.length(); i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(call(req, calls.getJSONObject(i)));
+                }
+                res = sb.append(']').toString();
+            } else {
+                res = call(req, new JSONObject(text));
+            }
+        } catch (JSONException ex) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            return;
+        }
+        writeBody(req, resp, "application/json", res.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    private String call(HttpServletRequest req, JSONObject obj) {
+        Object id = obj.opt("id");
+        String method = obj.optString("method");
+        JSONObject params = obj.optJSONObject("params");
+        if (params == null) {
+            params = new JSONObject();
+        }
+        String head = "{\"jsonrpc\":\"2.0\",\"id\":" + JSONObject.valueToString(id);
+        try {
+            String result = dispatch(req, method, params);
+            return head + ",\"result\":" + result + "}";
+        } catch (RPCError ex) {
+            logger.info(method + " " + ex.getMessage());
+            JSONObject error = new JSONObject();
+            error.put("code", ex.code);
+            error.put("message", ex.getMessage());
+            return head + ",\"error\":" + error + "}";
+        }
+    }
+
+    private String dispatch(HttpServletRequest req, String method, JSONObject params) throws RPCError {
+        switch (method) {
+            case "get_server_info":
+                return server.getScript().getServerInfo();
+            case "start_session":
+                return startSession(req);
+        }
+        SessionData session = getSession(params);
+        switch (method) {
+            case "end_session":
+                server.removeSession(session.getId());
+                return "{}";
+            case "get_window":
+                return server.getScript().getWindow();
+            case "send_event":
+                logEvent(session, params);
+                return server.getScript().getEvent(session.nextEvent());
+            case "get_screen_define":
+                return getScreenDefine(params);
+            case "get_message":
+                return "{}";
+            case "list_downloads":
+                return "[]";
+            default:
+                throw new RPCError(METHOD_NOT_FOUND, "method not found:" + method);
+        }
+    }
+
+    private String startSession(HttpServletRequest req) {
+        SessionData session = server.createSession();
+        String base = req.getScheme() + "://" + req.getServerName() + ":" + req.getServerPort();
+        JSONObject meta = new JSONObject();
+        meta.put("session_id", session.getId());
+        JSONObject result = new JSONObject();
+        result.put("meta", meta);
+        result.put("app_rpc_endpoint_uri", base + StandinServer.APP_PATH);
+        result.put("app_rest_api_uri_root", base + StandinServer.REST_PATH);
+        if (server.isPusher()) {
+            result.put("pusher_uri", base.replaceFirst("^http", "ws") + StandinServer.PUSHER_PATH);
+        }
+        return result.toString();
+    }
+
+    private SessionData getSession(JSONObject params) throws RPCError {
+        JSONObject meta = params.optJSONObject("meta");
+        String id = meta == null ? null : meta.optString("session_id", null);
+        SessionData session = id == null ? null : server.getSession(id);
+        if (session == null) {
+            throw new RPCError(INVALID_SESSION, "invalid session:" + id);
+        }
+        return session;
+    }
+
+    private String getScreenDefine(JSONObject params) throws RPCError {
+        String window = params.optString("window");
+        String define;
+        try {
+            define = server.getScript().getScreenDefine(window);
+        } catch (IOException ex) {
+            throw new RPCError(INVALID_PARAMS, "cannot read screen define:" + window + " " + ex.getMessage());
+        }
+        if (define == null) {
+            throw new RPCError(INVALID_PARAMS, "no screen define:" + window);
+        }
+        JSONObject result = new JSONObject();
+        result.put("screen_define", define);
+        return result.toString();
+    }
+
+    private static void logEvent(SessionData session, JSONObject params) {
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        JSONObject data = params.optJSONObject("event_data");
+        if (data != null) {
+            logger.debug(session.getId() + " window:" + data.optString("window") + " widget:" + data.optString("widget") + " event:" + data.optString("event"));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.standin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * Recorded responses served by StandinServer.</p>
+ * <p>
+ * A script is a directory with these files:</p>
+ * <ul>
+ * <li>server_info.json: the result of get_server_info. optional.</li>
+ * <li>get_window.json: the result of get_window.</li>
+ * <li>send_event/*.json: the results of send_event. Every session walks them
+ * in the order of the file names and starts over after the last one. When
+ * there are none, get_window.json is returned.</li>
+ * <li>screens/&lt;window&gt;.glade: the screen definition of a window.</li>
+ * <li>blobs/&lt;oid&gt;: the BLOBs that can be downloaded.</li>
+ * </ul>
+ * <p>
+ * The results of monsiaj run with monsia.debug.jsonrpc can be saved as they
+ * are.</p>
+ */
+public class Script {
+
+    private final File dir;
+    private final String serverInfo;
+    private final String window;
+    private final List<String> events;
+
+    public Script(File dir) throws IOException {
+        this.dir = dir;
+        File info = new File(dir, "server_info.json");
+        if (info.exists()) {
+            serverInfo = read(info);
+        } else {
+            JSONObject obj = new JSONObject();
+            obj.put("protocol_version", "1.0.0");
+            obj.put("application_version", "standin");
+            obj.put("server_type", "ginbee");
+            // requests are decoded by StandinServlet.readBody
+            obj.put("accept_encoding", "gzip");
+            serverInfo = obj.toString();
+        }
+        window = read(new File(dir, "get_window.json"));
+        events = new ArrayList<>();
+        File[] files = new File(dir, "send_event").listFiles((File d, String name) -> name.endsWith(".json"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                events.add(read(f));
+            }
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        String s = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        // fail early on broken files
+        new JSONObject(s);
+        return s;
+    }
+
+    /**
+     * @return the result of get_server_info as JSON text.
+     */
+    String getServerInfo() {
+        return serverInfo;
+    }
+
+    /**
+     * @return the result of get_window as JSON text.
+     */
+    String getWindow() {
+        return window;
+    }
+
+    /**
+     * @param n the number of send_event calls of the session so far.
+     * @return the result of the <var>n</var>th send_event as JSON text.
+     */
+    String getEvent(int n) {
+        if (events.isEmpty()) {
+            return window;
+        }
+        return events.get(n % events.size());
+    }
+
+    /**
+     * @return the screen definition of <var>window</var>, or null.
+     */
+    String getScreenDefine(String window) throws IOException {
+        File file = getFile("screens", window + ".glade");
+        if (file == null) {
+            return null;
+        }
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the file of the BLOB <var>oid</var>, or null.
+     */
+    File getBLOB(String oid) {
+        return getFile("blobs", oid);
+    }
+
+    private File getFile(String sub, String name) {
+        if (name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            return null;
+        }
+        File file = new File(new File(dir, sub), name);
+        return file.isFile() ? file : null;
+    }
+}
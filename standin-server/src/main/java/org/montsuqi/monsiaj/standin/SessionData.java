@@ -0,0 +1,66 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.standin;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * The state of a session of StandinServer.</p>
+ */
+class SessionData {
+
+    private final String id;
+    private final AtomicInteger events;
+    private final Map<String, byte[]> blobs;
+
+    SessionData(String id) {
+        this.id = id;
+        this.events = new AtomicInteger(0);
+        this.blobs = new ConcurrentHashMap<>();
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return the number of send_event calls before this one.
+     */
+    int nextEvent() {
+        return events.getAndIncrement();
+    }
+
+    void putBLOB(String oid, byte[] data) {
+        blobs.put(oid, data);
+    }
+
+    /**
+     * @return a BLOB posted in this session, or null.
+     */
+    byte[] getBLOB(String oid) {
+        return blobs.get(oid);
+    }
+}
@@ -0,0 +1,260 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.standin;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.json.JSONObject;
+
+/**
+ * <p>
+ * A stand-in for a ginbee server, for measuring the client without a
+ * network.</p>
+ * <p>
+ * It serves the JSON-RPC methods of the auth and application endpoints, the
+ * BLOB endpoint and the pusher from a Script. Every response waits for the
+ * latency and is sent no faster than the bandwidth, so that a remote server
+ * can be imitated on one machine. Credentials are not checked.</p>
+ * <p>
+ * It can be embedded, or run as</p>
+ * <pre>
+ * java -jar standin-server.jar &lt;script dir&gt;
+ * </pre>
+ * <p>
+ * with monsia.standin.port(default 8000), monsia.standin.latency(ms),
+ * monsia.standin.bandwidth(bytes per second), monsia.standin.disable_pusher
+ * and monsia.standin.disable_compression. The client connects to
+ * http://localhost:&lt;port&gt;/rpc/.</p>
+ */
+public class StandinServer {
+
+    private static final Logger logger = LogManager.getLogger(StandinServer.class);
+    private static final int DEFAULT_PORT = 8000;
+
+    static final String AUTH_PATH = "/rpc/";
+    static final String APP_PATH = "/rpc/app";
+    static final String REST_PATH = "/rest/";
+    static final String PUSHER_PATH = "/pusher";
+
+    private final Script script;
+    private final Map<String, SessionData> sessions;
+    private final Set<PusherSocket> sockets;
+    private final Server jetty;
+    private final ServerConnector connector;
+    private long latency;
+    private long bandwidth;
+    private boolean compression;
+    private boolean pusher;
+    private Throttle throttle;
+
+    /**
+     * @param script the responses.
+     * @param port the port to listen on, or 0 for any free port.
+     */
+    public StandinServer(Script script, int port) {
+        this.script = script;
+        this.sessions = new ConcurrentHashMap<>();
+        this.sockets = ConcurrentHashMap.newKeySet();
+        this.latency = 0;
+        this.bandwidth = 0;
+        this.compression = true;
+        this.pusher = true;
+        this.throttle = new Throttle(0, 0);
+
+        jetty = new Server();
+        connector = new ServerConnector(jetty);
+        connector.setPort(port);
+        jetty.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(new RPCServlet(this)), "/rpc/*");
+        context.addServlet(new ServletHolder(new BlobServlet(this)), REST_PATH + "*");
+        context.addServlet(new ServletHolder(new WebSocketServlet() {
+            @Override
+            public void configure(WebSocketServletFactory factory) {
+                factory.setCreator((req, resp) -> new PusherSocket(StandinServer.this));
+            }
+        }), PUSHER_PATH);
+        jetty.setHandler(context);
+    }
+
+    /**
+     * <p>
+     * Sets the milliseconds to wait before each response. Call before
+     * start().</p>
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * <p>
+     * Sets the bytes per second of each response body, or 0 for no limit.
+     * Call before start().</p>
+     */
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * <p>
+     * Whether responses are gzipped for clients accepting it. On by
+     * default.</p>
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * <p>
+     * Whether start_session returns a pusher_uri. On by default.</p>
+     */
+    public void setPusher(boolean pusher) {
+        this.pusher = pusher;
+    }
+
+    public void start() throws Exception {
+        throttle = new Throttle(latency, bandwidth);
+        jetty.start();
+        logger.info("standin server " + getAuthURI() + " latency:" + latency + "ms bandwidth:" + bandwidth + "B/s");
+    }
+
+    public void stop() throws Exception {
+        jetty.stop();
+    }
+
+    public void join() throws InterruptedException {
+        jetty.join();
+    }
+
+    /**
+     * @return the port listened on. valid after start().
+     */
+    public int getPort() {
+        return connector.getLocalPort();
+    }
+
+    /**
+     * @return the URI to give to the client as the auth URI.
+     */
+    public String getAuthURI() {
+        return "http://localhost:" + getPort() + AUTH_PATH;
+    }
+
+    /**
+     * @return the number of open sessions.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * <p>
+     * Sends an event to the pusher clients subscribing <var>sessionId</var>,
+     * or to all of them if it is null.</p>
+     */
+    public void push(String sessionId, JSONObject data) {
+        JSONObject obj = new JSONObject();
+        obj.put("command", "event");
+        obj.put("data", data);
+        String text = obj.toString();
+        for (PusherSocket socket : sockets) {
+            if (sessionId == null || sessionId.equals(socket.getSessionId())) {
+                socket.send(text);
+            }
+        }
+    }
+
+    Script getScript() {
+        return script;
+    }
+
+    Throttle getThrottle() {
+        return throttle;
+    }
+
+    boolean isCompression() {
+        return compression;
+    }
+
+    boolean isPusher() {
+        return pusher;
+    }
+
+    SessionData createSession() {
+        SessionData session = new SessionData(UUID.randomUUID().toString());
+        sessions.put(session.getId(), session);
+        logger.debug("start session " + session.getId());
+        return session;
+    }
+
+    SessionData getSession(String id) {
+        return sessions.get(id);
+    }
+
+    void removeSession(String id) {
+        sessions.remove(id);
+        logger.debug("end session " + id);
+    }
+
+    void subscribe(PusherSocket socket) {
+        sockets.add(socket);
+    }
+
+    void unsubscribe(PusherSocket socket) {
+        sockets.remove(socket);
+    }
+
+    private static long getLong(String key, long defaultValue) {
+        if (System.getProperty(key) != null) {
+            return Long.parseLong(System.getProperty(key));
+        }
+        return defaultValue;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: java -jar standin-server.jar <script dir>");
+            System.exit(1);
+        }
+        StandinServer server = new StandinServer(new Script(new File(args[0])), (int) getLong("monsia.standin.port", DEFAULT_PORT));
+        server.setLatency(getLong("monsia.standin.latency", 0));
+        server.setBandwidth(getLong("monsia.standin.bandwidth", 0));
+        server.setPusher(System.getProperty("monsia.standin.disable_pusher") == null);
+        server.setCompression(System.getProperty("monsia.standin.disable_compression") == null);
+        server.start();
+        server.join();
+    }
+}
@@ -0,0 +1,86 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>
+ * Reading and writing bodies of the servlets of StandinServer.</p>
+ */
+abstract class StandinServlet extends HttpServlet {
+
+    protected final StandinServer server;
+
+    StandinServlet(StandinServer server) {
+        this.server = server;
+    }
+
+    /**
+     * <p>
+     * Reads the request body, decoding gzip.</p>
+     */
+    protected static byte[] readBody(HttpServletRequest req) throws IOException {
+        InputStream in = req.getInputStream();
+        if ("gzip".equalsIgnoreCase(req.getHeader("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * <p>
+     * Writes <var>body</var> through the throttle of the server. The body is
+     * compressed when compression is on and the client accepts gzip.</p>
+     */
+    protected void writeBody(HttpServletRequest req, HttpServletResponse resp, String contentType, byte[] body, boolean compress) throws IOException {
+        String accept = req.getHeader("Accept-Encoding");
+        if (compress && server.isCompression() && accept != null && accept.contains("gzip")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+                gz.write(body);
+            }
+            body = bytes.toByteArray();
+            resp.setHeader("Content-Encoding", "gzip");
+        }
+        resp.setContentType(contentType);
+        resp.setContentLength(body.length);
+        OutputStream out = server.getThrottle().wrap(resp.getOutputStream());
+        out.write(body);
+        out.flush();
+    }
+}
@@ -0,0 +1,108 @@
+/*      PANDA -- a simple transaction monitor
+
+ Copyright (C) 1998-1999 Ogochan.
+ 2000-2003 Ogochan & JMA (Japan Medical Association).
+ 2002-2006 OZAWA Sakuro.
+
+ This module is part of PANDA.
+
+ PANDA is distributed in the hope that it will be useful, but
+ WITHOUT ANY WARRANTY.  No author or distributor accepts responsibility
+ to anyone for the consequences of using it or for whether it serves
+ any particular purpose or works at all, unless he says so in writing.
+ Refer to the GNU General Public License for full details.
+
+ Everyone is granted permission to copy, modify and redistribute
+ PANDA, but only under the conditions described in the GNU General
+ Public License.  A copy of this license is supposed to have been given
+ to you along with PANDA so you can know your rights and
+ responsibilities.  It should be in a file named COPYING.  Among other
+ things, the copyright notice and this notice must be preserved on all
+ copies.
+ */
+package org.montsuqi.monsiaj.standin;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Simulates the network between the server and a client. Every request is
+ * answered after the latency, and response bodies are sent no faster than
+ * the bandwidth.</p>
+ */
+class Throttle {
+
+    private final long latency;
+    private final long bandwidth;
+
+    /**
+     * @param latency milliseconds before each response, or 0.
+     * @param bandwidth bytes per second of each response, or 0 for no
+     * limit.
+     */
+    Throttle(long latency, long bandwidth) {
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+    }
+
+    void delay() throws IOException {
+        sleep(latency);
+    }
+
+    OutputStream wrap(OutputStream out) {
+        if (bandwidth <= 0) {
+            return out;
+        }
+        return new ThrottledOutputStream(out);
+    }
+
+    private static void sleep(long ms) throws IOException {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private class ThrottledOutputStream extends FilterOutputStream {
+
+        // about 100 writes per second
+        private final int chunk = (int) Math.max(1, Math.min(bandwidth / 100, 64 * 1024));
+        private long start;
+        private long sent;
+
+        ThrottledOutputStream(OutputStream out) {
+            super(out);
+            start = 0;
+            sent = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (start == 0) {
+                start = System.currentTimeMillis();
+            }
+            while (len > 0) {
+                int n = Math.min(len, chunk);
+                out.write(b, off, n);
+                out.flush();
+                off += n;
+                len -= n;
+                sent += n;
+                sleep(sent * 1000 / bandwidth - (System.currentTimeMillis() - start));
+            }
+        }
+    }
+}